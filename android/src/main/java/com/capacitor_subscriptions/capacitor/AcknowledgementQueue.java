@@ -0,0 +1,229 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Makes sure every purchase gets acknowledged - Google refunds purchases which are not acknowledged within three
+// days. Tokens are written to a small append-only journal before the acknowledgement is sent, failed attempts are
+// retried with backoff, and whatever is still pending when the process dies is replayed on the next launch.
+// All acknowledgements are sent at the same time, so a burst of restored purchases doesn't queue up behind each other
+class AcknowledgementQueue {
+
+    interface Callback {
+        // Called once, when the token was acknowledged, can't ever be (e.g. the purchase was refunded) or ran out of
+        // attempts for this launch - then with the last failed result, the token stays journaled and is replayed later
+        void onAcknowledged(String purchaseToken, BillingResult billingResult);
+    }
+
+    private static final String PENDING = "P ";
+    private static final String DONE = "A ";
+    private static final long INITIAL_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    // Further attempts are left to the next launch, the token stays in the journal until then
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final BillingGateway billing;
+    private final BillingConnection connection;
+    private final File journal;
+    private final Metrics metrics;
+    // Journal writes and retries all run on this single thread, which also keeps the journal free of interleaved lines
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapSubscriptions-ack"));
+    private final Random random = new Random();
+    // Tokens currently being acknowledged and the callbacks waiting for them, only touched on the executor
+    private final Map<String, List<Callback>> inFlight = new LinkedHashMap<>();
+
+    AcknowledgementQueue(BillingGateway billing, BillingConnection connection, File directory, Metrics metrics) {
+        this.billing = billing;
+        this.connection = connection;
+        this.journal = new File(directory, "ack-journal");
+        this.metrics = metrics;
+    }
+
+    void enqueue(String purchaseToken, Callback callback) {
+        executor.execute(() -> {
+            // A second purchase event for a token which is already being acknowledged waits for the same outcome
+            List<Callback> callbacks = inFlight.get(purchaseToken);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+
+            callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            inFlight.put(purchaseToken, callbacks);
+            append(PENDING + purchaseToken);
+            send(purchaseToken, 0);
+        });
+    }
+
+    // Re-sends every token which was journaled but never acknowledged, and compacts the journal while at it
+    void replay() {
+        executor.execute(() -> {
+            Set<String> pending = readPending();
+            rewrite(pending);
+
+            if (!pending.isEmpty()) {
+                Log.i("ACK", "Replaying " + pending.size() + " unacknowledged purchase(s)");
+            }
+
+            for (String purchaseToken : pending) {
+                if (!inFlight.containsKey(purchaseToken)) {
+                    inFlight.put(purchaseToken, new ArrayList<>());
+                    send(purchaseToken, 0);
+                }
+            }
+        });
+    }
+
+    private void send(String purchaseToken, int attempt) {
+        connection.execute(
+            new BillingConnection.Task() {
+                @Override
+                public void run() {
+                    long startedAt = Metrics.now();
+
+                    billing.acknowledgePurchase(purchaseToken, billingResult -> {
+                        metrics.recordStage(Metrics.Stage.ACKNOWLEDGEMENT, startedAt, billingResult.getResponseCode());
+                        executor.execute(() -> handleResult(purchaseToken, attempt, billingResult));
+                    });
+                }
+
+                @Override
+                public void fail(int responseCode, String responseMessage) {
+                    BillingResult billingResult = BillingResult.newBuilder()
+                        .setResponseCode(responseCode)
+                        .setDebugMessage(responseMessage)
+                        .build();
+                    executor.execute(() -> retry(purchaseToken, attempt, billingResult));
+                }
+            }
+        );
+    }
+
+    private void handleResult(String purchaseToken, int attempt, BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+
+        if (
+            responseCode == BillingClient.BillingResponseCode.OK ||
+            responseCode == BillingClient.BillingResponseCode.ITEM_NOT_OWNED ||
+            responseCode == BillingClient.BillingResponseCode.DEVELOPER_ERROR
+        ) {
+            // Anything but OK here means the token can never be acknowledged (refunded, invalid...), retrying is pointless
+            if (responseCode != BillingClient.BillingResponseCode.OK) {
+                Log.e("ACK", "Dropping purchase which can't be acknowledged: " + billingResult.getDebugMessage());
+            }
+
+            append(DONE + purchaseToken);
+            complete(purchaseToken, billingResult);
+            return;
+        }
+
+        Log.w("ACK", "Acknowledgement failed with " + responseCode + ", retrying");
+        retry(purchaseToken, attempt, billingResult);
+    }
+
+    private void retry(String purchaseToken, int attempt, BillingResult lastBillingResult) {
+        if (attempt + 1 >= MAX_ATTEMPTS) {
+            // No DONE line, so the token is replayed on the next launch
+            Log.e("ACK", "Giving up on acknowledgement for now, it will be retried on the next launch");
+            complete(purchaseToken, lastBillingResult);
+            return;
+        }
+
+        long ceiling = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << attempt);
+        long delay = ceiling / 2 + (long) (random.nextDouble() * ceiling / 2);
+        executor.schedule(() -> send(purchaseToken, attempt + 1), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void complete(String purchaseToken, BillingResult billingResult) {
+        List<Callback> callbacks = inFlight.remove(purchaseToken);
+        if (callbacks == null) {
+            return;
+        }
+
+        for (Callback callback : callbacks) {
+            callback.onAcknowledged(purchaseToken, billingResult);
+        }
+    }
+
+    private Set<String> readPending() {
+        Set<String> pending = new LinkedHashSet<>();
+        if (!journal.exists()) {
+            return pending;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PENDING)) {
+                    pending.add(line.substring(PENDING.length()));
+                } else if (line.startsWith(DONE)) {
+                    pending.remove(line.substring(DONE.length()));
+                }
+            }
+        } catch (IOException e) {
+            Log.e("ACK", "Could not read acknowledgement journal: " + e);
+        }
+
+        return pending;
+    }
+
+    private void append(String line) {
+        if (!ensureDirectory()) {
+            return;
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(journal, true), StandardCharsets.UTF_8)) {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e("ACK", "Could not write acknowledgement journal: " + e);
+        }
+    }
+
+    private void rewrite(Set<String> pending) {
+        if (!ensureDirectory()) {
+            return;
+        }
+
+        File tmp = new File(journal.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (String purchaseToken : pending) {
+                writer.write(PENDING + purchaseToken);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.e("ACK", "Could not compact acknowledgement journal: " + e);
+            return;
+        }
+
+        if (!tmp.renameTo(journal)) {
+            Log.e("ACK", "Could not replace acknowledgement journal");
+        }
+    }
+
+    private boolean ensureDirectory() {
+        File directory = journal.getParentFile();
+        return directory == null || directory.exists() || directory.mkdirs();
+    }
+}
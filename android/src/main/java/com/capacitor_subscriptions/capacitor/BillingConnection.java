@@ -0,0 +1,217 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Owns the connection to Play Billing. Calls made while the client is (re)connecting are queued and run
+// as soon as onBillingSetupFinished reports OK, instead of being answered with "still initialising" straight
+// away. A lost connection is re-established with jittered exponential backoff, queued calls only fail once
+// they have waited longer than the configured timeout.
+//
+// The connection state is a small state machine driven by compare-and-set, so the Billing thread and any number
+// of bridge threads can use it at the same time without a global lock
+class BillingConnection implements BillingClientStateListener {
+
+    interface Task {
+        // Called once the BillingClient is ready to be used
+        void run();
+
+        void fail(int responseCode, String responseMessage);
+    }
+
+    interface Listener {
+        // Called on every successful (re)connect, before any queued task runs
+        void onConnected();
+    }
+
+    enum State {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        // Play reported that billing can't work on this device right now, the next call tries again
+        UNAVAILABLE
+    }
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    private final BillingGateway billing;
+    private final long queueTimeoutMs;
+    private final StartupTimings startupTimings;
+    private final Metrics metrics;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("CapSubscriptions-billing")
+    );
+    private final Random random = new Random();
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.DISCONNECTED);
+    private final ConcurrentLinkedQueue<PendingTask> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger attempt = new AtomicInteger();
+    private final AtomicBoolean reconnectScheduled = new AtomicBoolean(false);
+    private volatile Listener listener;
+    private volatile long connectStartedAt;
+
+    BillingConnection(BillingGateway billing, long queueTimeoutMs, StartupTimings startupTimings, Metrics metrics) {
+        this.billing = billing;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.startupTimings = startupTimings;
+        this.metrics = metrics;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void connect() {
+        // Only one caller wins the transition into CONNECTING, everybody else piggybacks on that attempt
+        if (!state.compareAndSet(State.DISCONNECTED, State.CONNECTING) && !state.compareAndSet(State.UNAVAILABLE, State.CONNECTING)) {
+            return;
+        }
+
+        startupTimings.markConnectStarted();
+        connectStartedAt = Metrics.now();
+        billing.startConnection(this);
+    }
+
+    void execute(Task task) {
+        if (state.get() == State.CONNECTED) {
+            task.run();
+            return;
+        }
+
+        PendingTask pendingTask = new PendingTask(task);
+        pending.add(pendingTask);
+        pendingTask.timeout = scheduler.schedule(pendingTask::expire, queueTimeoutMs, TimeUnit.MILLISECONDS);
+
+        // The connection may have come up between the check above and adding the task, in which case
+        // nobody else is going to drain the queue anymore
+        if (state.get() == State.CONNECTED) {
+            drain();
+        } else if (!reconnectScheduled.get()) {
+            // Also picks up a client which gave up earlier, e.g. because Play was being updated at the time.
+            // While a reconnect is scheduled the task waits for it, the backoff is there for a reason
+            connect();
+        }
+    }
+
+    @Override
+    public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+        metrics.recordStage(Metrics.Stage.CONNECT, connectStartedAt, responseCode);
+
+        if (responseCode == BillingClient.BillingResponseCode.OK) {
+            state.set(State.CONNECTED);
+            attempt.set(0);
+            startupTimings.markSetupFinished();
+
+            Listener connectedListener = listener;
+            if (connectedListener != null) {
+                connectedListener.onConnected();
+            }
+
+            drain();
+        } else if (
+            responseCode == BillingClient.BillingResponseCode.BILLING_UNAVAILABLE ||
+            responseCode == BillingClient.BillingResponseCode.FEATURE_NOT_SUPPORTED
+        ) {
+            // Retrying won't help here (no Play Store, unsupported device...), fail what is waiting right away.
+            // The next call will try to connect again
+            Log.e("BILLING", "BillingClient failed to initialise: " + billingResult.getDebugMessage());
+            state.set(State.UNAVAILABLE);
+
+            PendingTask pendingTask;
+            while ((pendingTask = pending.poll()) != null) {
+                pendingTask.fail(500, "Android: BillingClient failed to initialise");
+            }
+        } else {
+            Log.w("BILLING", "BillingClient setup returned " + responseCode + ", retrying");
+            scheduleReconnect();
+        }
+    }
+
+    @Override
+    public void onBillingServiceDisconnected() {
+        Log.w("BILLING", "BillingClient disconnected, reconnecting");
+        scheduleReconnect();
+    }
+
+    private void drain() {
+        PendingTask pendingTask;
+        while ((pendingTask = pending.poll()) != null) {
+            pendingTask.run();
+        }
+    }
+
+    private void scheduleReconnect() {
+        state.set(State.DISCONNECTED);
+        if (!reconnectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        // Full jitter: a random delay between 0 and the exponential backoff ceiling, so a fleet of devices
+        // losing Play at the same time doesn't come back in lockstep
+        long ceiling = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(attempt.getAndIncrement(), 16));
+        long delay = (long) (random.nextDouble() * ceiling);
+
+        scheduler.schedule(
+            () -> {
+                reconnectScheduled.set(false);
+                connect();
+            },
+            delay,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    // A queued task is claimed exactly once - by the drain that runs it, by its timeout, or by a setup failure
+    private final class PendingTask {
+
+        final Task task;
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        volatile ScheduledFuture<?> timeout;
+
+        PendingTask(Task task) {
+            this.task = task;
+        }
+
+        void run() {
+            if (claimed.compareAndSet(false, true)) {
+                cancelTimeout();
+                task.run();
+            }
+        }
+
+        void fail(int responseCode, String responseMessage) {
+            if (claimed.compareAndSet(false, true)) {
+                cancelTimeout();
+                task.fail(responseCode, responseMessage);
+            }
+        }
+
+        void expire() {
+            if (claimed.compareAndSet(false, true)) {
+                pending.remove(this);
+                task.fail(503, "Android: BillingClient is still initialising");
+            }
+        }
+
+        private void cancelTimeout() {
+            ScheduledFuture<?> scheduledTimeout = timeout;
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.app.Activity;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.util.List;
+
+// Everything the plugin needs from Play Billing. PlayBillingGateway talks to the real BillingClient, the JVM tests
+// plug in a fake one. Requests are described with plain values rather than the library's *Params objects, which
+// can be built but not read back
+interface BillingGateway {
+    void startConnection(BillingClientStateListener listener);
+
+    void queryProductDetails(List<String> productIdentifiers, String productType, ProductDetailsResponseListener listener);
+
+    void queryPurchases(String productType, PurchasesResponseListener listener);
+
+    void acknowledgePurchase(String purchaseToken, AcknowledgePurchaseResponseListener listener);
+
+    // accountId may be null
+    BillingResult launchBillingFlow(Activity activity, ProductDetails productDetails, String offerToken, String accountId);
+}
@@ -0,0 +1,172 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import com.getcapacitor.JSObject;
+
+// Guards the verification endpoint. The outcome of the last WINDOW requests is kept in a ring, and once at least
+// MIN_CALLS of them are in and the share of failed or slow ones reaches the threshold the breaker opens: for the
+// cooldown no request is sent at all and verifications are answered straight from the cache. After the cooldown
+// a single probe request is let through, its outcome either closes the breaker again or restarts the cooldown.
+// Every admitted request holds a permit of the state it was let through in, outcomes of requests from an earlier
+// state (e.g. the failure burst still trickling in while the probe runs) are ignored
+class CircuitBreaker {
+
+    interface Listener {
+        // Called outside the lock on every state change
+        void onStateChanged(JSObject status);
+    }
+
+    static final String CLOSED = "closed";
+    static final String OPEN = "open";
+    static final String HALF_OPEN = "halfOpen";
+    // Returned by tryAcquire() when the request must not be sent
+    static final long NO_PERMIT = -1;
+
+    private static final int WINDOW = 20;
+    private static final int MIN_CALLS = 10;
+
+    private final int failureThresholdPercent;
+    private final long slowCallMs;
+    private final long cooldownMs;
+
+    // Guarded by this
+    private final boolean[] failures = new boolean[WINDOW];
+    private int calls = 0;
+    private int next = 0;
+    private int failed = 0;
+    private String state = CLOSED;
+    private long openedAt = 0;
+    private boolean probing = false;
+    // Bumped on every state change, permits are the generation they were handed out in
+    private long generation = 0;
+
+    private volatile Listener listener;
+
+    // A threshold of 0 turns the breaker off, it then never opens
+    CircuitBreaker(int failureThresholdPercent, long slowCallMs, long cooldownMs) {
+        this.failureThresholdPercent = failureThresholdPercent;
+        this.slowCallMs = slowCallMs;
+        this.cooldownMs = cooldownMs;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Whether a request would currently be let through, without claiming the half-open probe
+    synchronized boolean isAvailable() {
+        if (OPEN.equals(state)) {
+            return System.currentTimeMillis() - openedAt >= cooldownMs;
+        }
+        return !HALF_OPEN.equals(state) || !probing;
+    }
+
+    // Returns NO_PERMIT or a permit which must be handed to record() once the request is done, on every path
+    long tryAcquire() {
+        JSObject changed = null;
+        long permit;
+        synchronized (this) {
+            if (OPEN.equals(state)) {
+                if (System.currentTimeMillis() - openedAt < cooldownMs) {
+                    return NO_PERMIT;
+                }
+                state = HALF_OPEN;
+                generation++;
+                probing = false;
+                changed = toJSObjectLocked();
+            }
+
+            if (HALF_OPEN.equals(state)) {
+                if (probing) {
+                    return NO_PERMIT;
+                }
+                probing = true;
+            }
+            permit = generation;
+        }
+
+        notifyListener(changed);
+        return permit;
+    }
+
+    // success is false for transport errors and non-200 answers, anything slower than slowCallMs counts as failed too
+    void record(long permit, boolean success, long latencyMs) {
+        boolean failure = !success || latencyMs >= slowCallMs;
+        JSObject changed = null;
+
+        synchronized (this) {
+            if (permit != generation) {
+                // Let through before the last state change, says nothing about the current one
+                return;
+            }
+
+            if (HALF_OPEN.equals(state)) {
+                probing = false;
+                if (failure) {
+                    open();
+                } else {
+                    state = CLOSED;
+                    generation++;
+                    reset();
+                }
+                changed = toJSObjectLocked();
+            } else if (CLOSED.equals(state)) {
+                if (calls == WINDOW && failures[next]) {
+                    failed--;
+                }
+                failures[next] = failure;
+                next = (next + 1) % WINDOW;
+                calls = Math.min(WINDOW, calls + 1);
+                if (failure) {
+                    failed++;
+                }
+
+                if (failureThresholdPercent > 0 && calls >= MIN_CALLS && failed * 100 >= failureThresholdPercent * calls) {
+                    Log.w("VERIFY", "Opening circuit breaker after " + failed + " of " + calls + " verification requests failed");
+                    open();
+                    changed = toJSObjectLocked();
+                }
+            }
+        }
+
+        notifyListener(changed);
+    }
+
+    synchronized JSObject toJSObject() {
+        return toJSObjectLocked();
+    }
+
+    // Must be called while holding the lock
+    private void open() {
+        state = OPEN;
+        generation++;
+        openedAt = System.currentTimeMillis();
+        reset();
+    }
+
+    // Must be called while holding the lock
+    private void reset() {
+        calls = 0;
+        next = 0;
+        failed = 0;
+    }
+
+    // Must be called while holding the lock
+    private JSObject toJSObjectLocked() {
+        JSObject status = new JSObject();
+        status.put("state", state);
+        status.put("failureRate", calls > 0 ? failed * 100 / calls : 0);
+        status.put("requests", calls);
+        if (OPEN.equals(state)) {
+            status.put("retryIn", Math.max(0, cooldownMs - (System.currentTimeMillis() - openedAt)));
+        }
+        return status;
+    }
+
+    private void notifyListener(JSObject status) {
+        Listener current = listener;
+        if (status != null && current != null) {
+            current.onStateChanged(status);
+        }
+    }
+}
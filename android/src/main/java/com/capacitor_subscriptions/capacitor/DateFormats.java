@@ -0,0 +1,105 @@
+package com.capacitor_subscriptions.capacitor;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// Cached formatters for the two date formats the plugin hands out. Creating a SimpleDateFormat (and the Calendar
+// inside it) is by far the most expensive part of formatting a date, and an instance can't be shared between threads,
+// so every thread keeps its own set. They are rebuilt when the default locale changes or the system reports a new
+// time zone.
+// java.time would need core library desugaring at minSdk 22, which every app using the plugin would have to enable
+final class DateFormats {
+
+    // What the verification endpoint returns and what expiryDate is reported as
+    static final String EXPIRY_DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    // What originalStartDate is reported as
+    static final String START_DATE_PATTERN = "dd-MM-yyyy hh:mm";
+
+    private static final class Formats {
+
+        final Locale locale;
+        final String timeZoneId;
+        final SimpleDateFormat expiryDate;
+        final SimpleDateFormat startDate;
+        final Date date = new Date();
+        final ParsePosition position = new ParsePosition(0);
+
+        Formats(Locale locale, String timeZoneId) {
+            this.locale = locale;
+            this.timeZoneId = timeZoneId;
+            this.expiryDate = new SimpleDateFormat(EXPIRY_DATE_PATTERN, locale);
+            this.startDate = new SimpleDateFormat(START_DATE_PATTERN, locale);
+            // The default may not have caught up yet when the zone comes from onTimeZoneChanged
+            TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+            this.expiryDate.setTimeZone(timeZone);
+            this.startDate.setTimeZone(timeZone);
+        }
+    }
+
+    private static final ThreadLocal<Formats> FORMATS = new ThreadLocal<>();
+
+    // TimeZone.getDefault() clones the zone on every call, so its ID is only read again after onTimeZoneChanged.
+    // Null until the first date is formatted
+    private static volatile String defaultTimeZoneId;
+
+    private DateFormats() {}
+
+    // Called with the new zone's ID when the device's time zone changes, null reads the default again
+    static void onTimeZoneChanged(String timeZoneId) {
+        defaultTimeZoneId = timeZoneId;
+    }
+
+    private static Formats formats() {
+        Formats formats = FORMATS.get();
+        Locale locale = Locale.getDefault();
+        String timeZoneId = defaultTimeZoneId;
+        if (timeZoneId == null) {
+            timeZoneId = TimeZone.getDefault().getID();
+            defaultTimeZoneId = timeZoneId;
+        }
+
+        if (formats == null || !formats.locale.equals(locale) || !formats.timeZoneId.equals(timeZoneId)) {
+            formats = new Formats(locale, timeZoneId);
+            FORMATS.set(formats);
+        }
+        return formats;
+    }
+
+    static String formatStartDate(long timeMillis) {
+        Formats formats = formats();
+        formats.date.setTime(timeMillis);
+        return formats.startDate.format(formats.date);
+    }
+
+    // Returns 0 when the value isn't a valid expiry date
+    static long parseExpiryDate(String expiryDate) {
+        return expiryDate != null ? parseExpiryDate(formats(), expiryDate) : 0;
+    }
+
+    // Brings whatever the verification endpoint returned into the canonical expiry date format, null if it can't be parsed
+    static String normaliseExpiryDate(String expiryDate) {
+        if (expiryDate == null) {
+            return null;
+        }
+
+        // Looked up once for both the parse and the format
+        Formats formats = formats();
+        long timeMillis = parseExpiryDate(formats, expiryDate);
+        if (timeMillis == 0) {
+            return null;
+        }
+
+        formats.date.setTime(timeMillis);
+        return formats.expiryDate.format(formats.date);
+    }
+
+    private static long parseExpiryDate(Formats formats, String expiryDate) {
+        formats.position.setIndex(0);
+        formats.position.setErrorIndex(-1);
+        Date date = formats.expiryDate.parse(expiryDate, formats.position);
+        return date != null ? date.getTime() : 0;
+    }
+}
@@ -0,0 +1,112 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares every new entitlement snapshot with the one before and reports what changed for the user: entitlements
+// which were added, subscriptions which were renewed (their expiry date moved forward) and entitlements which ran
+// out, either because their expiry date passed or because Play doesn't list them anymore. Entitlements are matched
+// by purchase token, which stays the same across the renewals of a subscription
+class EntitlementDiff {
+
+    // Guarded by this
+    private Map<String, EntitlementStore.Entry> previous;
+    private long previousAt;
+
+    // Sets the snapshot the first update is compared with, e.g. the one from the entitlement store. Ignored once
+    // there is a baseline
+    synchronized void seed(List<EntitlementStore.Entry> entitlements, long takenAt) {
+        if (previous == null && entitlements != null) {
+            previous = byToken(entitlements);
+            previousAt = takenAt;
+        }
+    }
+
+    synchronized boolean hasBaseline() {
+        return previous != null;
+    }
+
+    // Returns { added, renewed, expired } or null when nothing changed. The very first snapshot only becomes the
+    // baseline, otherwise every existing entitlement would be reported as added
+    synchronized JSObject update(List<EntitlementStore.Entry> entitlements) {
+        long now = System.currentTimeMillis();
+        Map<String, EntitlementStore.Entry> current = byToken(entitlements);
+        Map<String, EntitlementStore.Entry> before = previous;
+        long beforeAt = previousAt;
+        previousAt = now;
+
+        if (before == null) {
+            previous = current;
+            return null;
+        }
+
+        // An entitlement which couldn't be verified this time keeps its last known expiry date in the baseline,
+        // so the next verified snapshot is still compared against it
+        Map<String, EntitlementStore.Entry> baseline = new HashMap<>(current);
+
+        JSArray added = new JSArray();
+        JSArray renewed = new JSArray();
+        JSArray expired = new JSArray();
+
+        for (Map.Entry<String, EntitlementStore.Entry> entry : current.entrySet()) {
+            EntitlementStore.Entry latest = entry.getValue();
+            EntitlementStore.Entry earlier = before.get(entry.getKey());
+
+            if (earlier == null) {
+                added.put(latest.toJSObject());
+                continue;
+            }
+
+            long latestExpiry = expiryOf(latest);
+            long earlierExpiry = expiryOf(earlier);
+            if (latestExpiry <= 0 && earlierExpiry > 0) {
+                baseline.put(entry.getKey(), earlier);
+            }
+
+            if (latestExpiry > 0 && earlierExpiry > 0 && latestExpiry > earlierExpiry) {
+                renewed.put(latest.toJSObject());
+            } else if (latestExpiry > 0 && latestExpiry <= now && isActive(earlier, beforeAt)) {
+                expired.put(latest.toJSObject());
+            }
+        }
+
+        for (Map.Entry<String, EntitlementStore.Entry> entry : before.entrySet()) {
+            if (!current.containsKey(entry.getKey()) && isActive(entry.getValue(), beforeAt)) {
+                expired.put(entry.getValue().toJSObject());
+            }
+        }
+
+        previous = baseline;
+
+        if (added.length() == 0 && renewed.length() == 0 && expired.length() == 0) {
+            return null;
+        }
+
+        return new JSObject().put("added", added).put("renewed", renewed).put("expired", expired);
+    }
+
+    // Entitlements without a known expiry date (one-time products, unverified subscriptions) count as active
+    private static boolean isActive(EntitlementStore.Entry entitlement, long at) {
+        long expiresAt = expiryOf(entitlement);
+        return expiresAt <= 0 || expiresAt > at;
+    }
+
+    // 0 when unknown
+    private static long expiryOf(EntitlementStore.Entry entitlement) {
+        return entitlement.expiryDate != null ? DateFormats.parseExpiryDate(entitlement.expiryDate) : 0;
+    }
+
+    private static Map<String, EntitlementStore.Entry> byToken(List<EntitlementStore.Entry> entitlements) {
+        Map<String, EntitlementStore.Entry> byToken = new HashMap<>();
+        for (EntitlementStore.Entry entitlement : entitlements) {
+            String key = entitlement.purchaseToken != null ? entitlement.purchaseToken : entitlement.transactionId;
+            if (key != null) {
+                byToken.put(key, entitlement);
+            }
+        }
+        return byToken;
+    }
+}
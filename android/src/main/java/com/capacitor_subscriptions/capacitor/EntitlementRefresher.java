@@ -0,0 +1,124 @@
+package com.capacitor_subscriptions.capacitor;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Refreshes the entitlements in the background so the app hears about renewals and expiries without polling.
+// It only runs while the app is in the foreground, and a refresh which became due in the background runs as soon
+// as the app is resumed. The interval shrinks to just after the nearest known expiry date, when a renewal or an
+// expiry is to be expected, and grows while the device is in power save mode
+class EntitlementRefresher {
+
+    interface Refresh {
+        void run();
+    }
+
+    interface PowerState {
+        boolean isPowerSaveMode();
+    }
+
+    // Never refresh more often than this, no matter how close the next expiry is
+    private static final long MIN_DELAY_MS = 60 * 1000;
+    // Play takes a moment to report a renewal, so the refresh for an expiry waits this much longer
+    private static final long EXPIRY_GRACE_MS = 60 * 1000;
+    private static final int POWER_SAVE_FACTOR = 4;
+
+    private final long intervalMs;
+    private final Refresh refresh;
+    private final PowerState powerState;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private boolean resumed = false;
+    private ScheduledFuture<?> next;
+    // Wall clock time the next refresh is due at, 0 before the first schedule
+    private long nextAt = 0;
+    // Earliest expiry date still in the future in the last snapshot, 0 if there is none
+    private long nearestExpiry = 0;
+
+    // An interval of 0 turns background refreshes off
+    EntitlementRefresher(long intervalMs, Refresh refresh, PowerState powerState) {
+        this.intervalMs = intervalMs;
+        this.refresh = refresh;
+        this.powerState = powerState;
+        this.scheduler = intervalMs > 0 ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapSubscriptions-refresh")) : null;
+    }
+
+    synchronized void resume() {
+        if (scheduler == null || resumed) {
+            return;
+        }
+
+        resumed = true;
+        if (nextAt == 0) {
+            nextAt = System.currentTimeMillis() + delay();
+        }
+        schedule();
+    }
+
+    synchronized void pause() {
+        resumed = false;
+        cancel();
+    }
+
+    // Called with every stored entitlement snapshot, no matter what triggered the refresh
+    synchronized void onEntitlements(List<EntitlementStore.Entry> entitlements) {
+        if (scheduler == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long nearest = 0;
+        for (EntitlementStore.Entry entitlement : entitlements) {
+            long expiresAt = entitlement.expiryDate != null ? DateFormats.parseExpiryDate(entitlement.expiryDate) : 0;
+            if (expiresAt > now && (nearest == 0 || expiresAt < nearest)) {
+                nearest = expiresAt;
+            }
+        }
+        nearestExpiry = nearest;
+        nextAt = now + delay();
+
+        if (resumed) {
+            schedule();
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            if (!resumed) {
+                return;
+            }
+            // In case the refresh fails, a successful one reschedules through onEntitlements
+            nextAt = System.currentTimeMillis() + delay();
+            schedule();
+        }
+
+        refresh.run();
+    }
+
+    // Must be called while holding the lock
+    private long delay() {
+        long delay = powerState.isPowerSaveMode() ? intervalMs * POWER_SAVE_FACTOR : intervalMs;
+        if (nearestExpiry > 0) {
+            delay = Math.min(delay, nearestExpiry + EXPIRY_GRACE_MS - System.currentTimeMillis());
+        }
+        return Math.max(MIN_DELAY_MS, delay);
+    }
+
+    // Must be called while holding the lock
+    private void schedule() {
+        cancel();
+        next = scheduler.schedule(this::run, Math.max(0, nextAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    // Must be called while holding the lock
+    private void cancel() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+}
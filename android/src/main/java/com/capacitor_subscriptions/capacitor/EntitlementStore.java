@@ -0,0 +1,282 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import com.android.billingclient.api.BillingClient;
+import com.getcapacitor.JSObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+// The last entitlements computed by getCurrentEntitlements, kept in a small binary file in the app's private storage.
+// On a cold start this answers getCachedEntitlements straight from disk, long before the BillingClient is connected
+// and the purchases have been verified again. The file ends with a CRC32 of its content, a torn or corrupted file
+// is ignored instead of handing out wrong entitlements
+class EntitlementStore {
+
+    private static final int MAGIC = 0x43534531; // "CSE1"
+    // Version 1 files predate one-time products, all of their entries are subscriptions
+    private static final int VERSION = 2;
+    // Anything bigger than this is not a file we wrote
+    private static final int MAX_FILE_SIZE = 1024 * 1024;
+
+    static final class Entry {
+
+        final String productIdentifier;
+        // BillingClient.ProductType.SUBS or INAPP, one-time products never expire and are not verified
+        final String productType;
+        final String expiryDate;
+        final String originalStartDate;
+        final String transactionId;
+        final String purchaseToken;
+        final boolean partial;
+
+        Entry(
+            String productIdentifier,
+            String productType,
+            String expiryDate,
+            String originalStartDate,
+            String transactionId,
+            String purchaseToken,
+            boolean partial
+        ) {
+            this.productIdentifier = productIdentifier;
+            this.productType = productType;
+            this.expiryDate = expiryDate;
+            this.originalStartDate = originalStartDate;
+            this.transactionId = transactionId;
+            this.purchaseToken = purchaseToken;
+            this.partial = partial;
+        }
+
+        JSObject toJSObject() {
+            return new JSObject()
+                .put("productIdentifier", productIdentifier)
+                .put("productType", productType)
+                .put("expiryDate", expiryDate)
+                .put("originalStartDate", originalStartDate)
+                .put("originalId", transactionId)
+                .put("transactionId", transactionId)
+                .put("purchaseToken", purchaseToken)
+                .put("partial", partial);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return (
+                partial == entry.partial &&
+                Objects.equals(productIdentifier, entry.productIdentifier) &&
+                Objects.equals(productType, entry.productType) &&
+                Objects.equals(expiryDate, entry.expiryDate) &&
+                Objects.equals(originalStartDate, entry.originalStartDate) &&
+                Objects.equals(transactionId, entry.transactionId) &&
+                Objects.equals(purchaseToken, entry.purchaseToken)
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productIdentifier, productType, expiryDate, originalStartDate, transactionId, purchaseToken, partial);
+        }
+    }
+
+    private final File file;
+    private final ExecutorService persistExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("CapSubscriptions-store"));
+
+    // Guarded by this. Null until something was stored, or while there is no readable file
+    private List<Entry> entries;
+    private long savedAt;
+    private boolean loaded = false;
+
+    EntitlementStore(File directory) {
+        this.file = new File(directory, "entitlements");
+    }
+
+    // Reads the file in the background, so the first getCachedEntitlements call normally finds it in memory
+    void preload() {
+        persistExecutor.execute(this::ensureLoaded);
+    }
+
+    // Null when nothing has been stored yet
+    synchronized List<Entry> get() {
+        ensureLoaded();
+        return entries;
+    }
+
+    synchronized long getSavedAt() {
+        ensureLoaded();
+        return savedAt;
+    }
+
+    synchronized boolean hasEntries() {
+        ensureLoaded();
+        return entries != null;
+    }
+
+    // Stores the freshly computed entitlements and returns true if they differ from what was stored before
+    boolean update(List<Entry> updated) {
+        List<Entry> snapshot = Collections.unmodifiableList(new ArrayList<>(updated));
+        long now = System.currentTimeMillis();
+        boolean changed;
+
+        synchronized (this) {
+            ensureLoaded();
+            changed = !snapshot.equals(entries);
+            entries = snapshot;
+            savedAt = now;
+
+            // The timestamp alone isn't worth a write, getSavedAt is only informational. Queued under the lock,
+            // so concurrent updates are written in the same order they were applied and the file ends up current
+            if (changed) {
+                persistExecutor.execute(() -> persist(snapshot, now));
+            }
+        }
+
+        return changed;
+    }
+
+    private synchronized void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!file.exists() || file.length() > MAX_FILE_SIZE) {
+            return;
+        }
+
+        byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+                read += count;
+            }
+
+            decode(bytes);
+        } catch (Exception e) {
+            Log.e("ENTITLEMENT-STORE", "Ignoring unreadable entitlement store: " + e);
+            entries = null;
+            savedAt = 0;
+        }
+    }
+
+    // Must be called while holding the lock
+    private void decode(byte[] bytes) throws IOException {
+        if (bytes.length < 8) {
+            throw new IOException("File too short");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Unknown format");
+        }
+        int version = in.readInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unknown version " + version);
+        }
+
+        long storedAt = in.readLong();
+        int count = in.readInt();
+        List<Entry> decoded = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String productIdentifier = readString(in);
+            String productType = version >= 2 ? readString(in) : BillingClient.ProductType.SUBS;
+            decoded.add(
+                new Entry(productIdentifier, productType, readString(in), readString(in), readString(in), readString(in), in.readBoolean())
+            );
+        }
+
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("Checksum mismatch");
+        }
+
+        entries = Collections.unmodifiableList(decoded);
+        savedAt = storedAt;
+    }
+
+    private void persist(List<Entry> snapshot, long storedAt) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(storedAt);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                writeString(out, entry.productIdentifier);
+                writeString(out, entry.productType);
+                writeString(out, entry.expiryDate);
+                writeString(out, entry.originalStartDate);
+                writeString(out, entry.transactionId);
+                writeString(out, entry.purchaseToken);
+                out.writeBoolean(entry.partial);
+            }
+            out.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+        } catch (IOException e) {
+            Log.e("ENTITLEMENT-STORE", "Could not encode entitlements: " + e);
+            return;
+        }
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.e("ENTITLEMENT-STORE", "Could not create " + directory);
+            return;
+        }
+
+        // Same as the expiry cache, write next to the file and swap it in so a crash never leaves half a file behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            buffer.writeTo(out);
+        } catch (IOException e) {
+            Log.e("ENTITLEMENT-STORE", "Could not write entitlement store: " + e);
+            return;
+        }
+
+        if (!tmp.renameTo(file)) {
+            Log.e("ENTITLEMENT-STORE", "Could not replace entitlement store");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
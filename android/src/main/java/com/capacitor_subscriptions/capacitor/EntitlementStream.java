@@ -0,0 +1,103 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Hands the entitlements of a streaming getCurrentEntitlements call to the WebView page by page, as they are
+// verified. A page goes out once it is full, or shortly after its first entitlement arrived, so the first
+// entitlement shows up right away even if the rest of the page is still waiting for the verification endpoint
+class EntitlementStream {
+
+    interface Sink {
+        void emit(JSObject page);
+    }
+
+    // How long a page which isn't full yet waits for more entitlements
+    private static final long LINGER_MS = 50;
+
+    private final String streamId;
+    private final int pageSize;
+    private final Sink sink;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private List<EntitlementStore.Entry> page = new ArrayList<>();
+    private int cursor = 0;
+    private int pages = 0;
+    private int total = 0;
+    private int partial = 0;
+    private boolean finished = false;
+
+    EntitlementStream(String streamId, int pageSize, Sink sink, ScheduledExecutorService scheduler) {
+        this.streamId = streamId;
+        this.pageSize = Math.max(1, pageSize);
+        this.sink = sink;
+        this.scheduler = scheduler;
+    }
+
+    synchronized void add(EntitlementStore.Entry entitlement) {
+        if (finished) {
+            return;
+        }
+
+        page.add(entitlement);
+        total++;
+        if (entitlement.partial) {
+            partial++;
+        }
+
+        if (page.size() >= pageSize) {
+            flush();
+        } else if (page.size() == 1) {
+            List<EntitlementStore.Entry> lingering = page;
+            scheduler.schedule(() -> flushIfStill(lingering), LINGER_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Sends whatever is left and returns the summary the call is resolved with. The resolve is what tells the
+    // WebView that no more pages will follow
+    synchronized JSObject finish() {
+        if (!finished) {
+            flush();
+            finished = true;
+        }
+
+        return new JSObject().put("streamId", streamId).put("total", total).put("partial", partial).put("pages", pages);
+    }
+
+    private synchronized void flushIfStill(List<EntitlementStore.Entry> lingering) {
+        // The page was sent (and replaced) in the meantime
+        if (!finished && page == lingering) {
+            flush();
+        }
+    }
+
+    // Must be called while holding the lock. Pages are emitted under the lock, so they always arrive in cursor order
+    private void flush() {
+        if (page.isEmpty()) {
+            return;
+        }
+
+        JSArray data = new JSArray();
+        for (EntitlementStore.Entry entitlement : page) {
+            data.put(entitlement.toJSObject());
+        }
+
+        JSObject event = new JSObject();
+        event.put("streamId", streamId);
+        event.put("cursor", cursor);
+        event.put("nextCursor", cursor + page.size());
+        event.put("pageSize", pageSize);
+        event.put("data", data);
+
+        cursor += page.size();
+        pages++;
+        page = new ArrayList<>();
+
+        sink.emit(event);
+    }
+}
@@ -0,0 +1,209 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Remembers verified expiry dates per order ID so repeated entitlement checks don't have to ask the
+// verification endpoint again. There is a small LRU in memory, backed by a file in the app's private
+// storage which survives process restarts. An entry is dropped once its expiry date has passed or the
+// configured TTL has run out, whichever comes first
+class ExpiryCache {
+
+    private static final String SEPARATOR = "\t";
+
+    private static final class Entry {
+
+        final String expiryDate;
+        final long validUntil;
+
+        Entry(String expiryDate, long validUntil) {
+            this.expiryDate = expiryDate;
+            this.validUntil = validUntil;
+        }
+    }
+
+    private final File file;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry> entries;
+    private final ExecutorService persistExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("CapSubscriptions-cache"));
+    private final AtomicBoolean persistScheduled = new AtomicBoolean(false);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private boolean loaded = false;
+
+    ExpiryCache(File directory, long ttlMs, int maxEntries) {
+        this.file = new File(directory, "expiry-cache");
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // Reads the file in the background, so the first lookup on the main thread normally finds it in memory
+    void preload() {
+        persistExecutor.execute(() -> {
+            synchronized (entries) {
+                ensureLoaded();
+            }
+        });
+    }
+
+    // Returns the cached expiry date, or null when the order ID has to be verified again
+    String get(String orderId) {
+        synchronized (entries) {
+            ensureLoaded();
+
+            Entry entry = entries.get(orderId);
+            if (entry != null && entry.validUntil > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.expiryDate;
+            }
+
+            if (entry != null) {
+                entries.remove(orderId);
+                schedulePersist();
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(String orderId, String expiryDate) {
+        if (orderId == null || expiryDate == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long expiresAt = DateFormats.parseExpiryDate(expiryDate);
+        long validUntil = Math.min(now + ttlMs, expiresAt > 0 ? expiresAt : Long.MAX_VALUE);
+        if (validUntil <= now) {
+            return;
+        }
+
+        synchronized (entries) {
+            ensureLoaded();
+            entries.put(orderId, new Entry(expiryDate, validUntil));
+        }
+        schedulePersist();
+    }
+
+    void invalidate(Collection<String> orderIds) {
+        boolean changed = false;
+        synchronized (entries) {
+            ensureLoaded();
+            for (String orderId : orderIds) {
+                changed |= entries.remove(orderId) != null;
+            }
+        }
+
+        if (changed) {
+            schedulePersist();
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // Must be called while holding the entries lock
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!file.exists()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length != 3) {
+                    continue;
+                }
+
+                long validUntil = Long.parseLong(parts[1]);
+                if (validUntil > now) {
+                    entries.put(parts[0], new Entry(parts[2], validUntil));
+                }
+            }
+        } catch (Exception e) {
+            Log.e("EXPIRY-CACHE", "Could not read expiry cache: " + e);
+        }
+    }
+
+    // Writes are coalesced onto a single background thread, a burst of verifications results in one write
+    private void schedulePersist() {
+        if (persistScheduled.compareAndSet(false, true)) {
+            persistExecutor.execute(() -> {
+                persistScheduled.set(false);
+                persist();
+            });
+        }
+    }
+
+    private void persist() {
+        List<String> lines = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                lines.add(entry.getKey() + SEPARATOR + entry.getValue().validUntil + SEPARATOR + entry.getValue().expiryDate);
+            }
+        }
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.e("EXPIRY-CACHE", "Could not create " + directory);
+            return;
+        }
+
+        // Write to a temporary file first, a crash halfway through must never leave a truncated cache behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.e("EXPIRY-CACHE", "Could not write expiry cache: " + e);
+            return;
+        }
+
+        if (!tmp.renameTo(file)) {
+            Log.e("EXPIRY-CACHE", "Could not replace expiry cache");
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Fans the expiry verification of several transactions out on the verification client's bounded pool and
+// hands the merged result back exactly once. Expiry dates which are still in the cache are answered straight
+// away and never reach the network. The merged result is delivered either when the slowest verification has
+// finished, or when the deadline passes, in which case the unfinished transactions are reported as partial.
+// While the client's circuit breaker is open, transactions missing from the cache are reported as partial right away
+class ExpiryVerifier {
+
+    interface Listener {
+        // expiryDates holds an entry (possibly null) for every transaction which finished in time,
+        // partial holds the ids of the transactions which were still being verified at the deadline, or which
+        // were skipped because the verification endpoint is unavailable
+        void onVerified(Map<String, String> expiryDates, Set<String> partial);
+    }
+
+    interface ProgressListener {
+        // Called for every transaction as soon as its expiry date is known, always before the Listener is called
+        void onTransactionVerified(String transactionId, String expiryDate);
+    }
+
+    private final VerificationClient client;
+    private final ExpiryCache cache;
+    private final ScheduledExecutorService deadlines;
+
+    ExpiryVerifier(VerificationClient client, ExpiryCache cache) {
+        this.client = client;
+        this.cache = cache;
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapSubscriptions-deadline"));
+    }
+
+    void verifyAll(Collection<String> transactionIds, long deadlineMs, Listener listener) {
+        verifyAll(transactionIds, deadlineMs, Tracer.Trace.NONE, null, listener);
+    }
+
+    // Every verification request is recorded as a span of the trace
+    void verifyAll(
+        Collection<String> transactionIds,
+        long deadlineMs,
+        Tracer.Trace trace,
+        ProgressListener progressListener,
+        Listener listener
+    ) {
+        Set<String> uniqueIds = new LinkedHashSet<>(transactionIds);
+        uniqueIds.remove(null);
+
+        if (uniqueIds.isEmpty()) {
+            listener.onVerified(Collections.emptyMap(), Collections.emptySet());
+            return;
+        }
+
+        Batch batch = new Batch(uniqueIds, progressListener, listener);
+        boolean available = client.isAvailable();
+
+        for (String transactionId : uniqueIds) {
+            String cachedExpiryDate = cache.get(transactionId);
+            if (cachedExpiryDate != null) {
+                batch.complete(transactionId, cachedExpiryDate);
+                continue;
+            }
+
+            if (!available) {
+                batch.skip(transactionId);
+                continue;
+            }
+
+            batch.futures.add(
+                client.verify(transactionId, trace, (verifiedId, expiryDate) -> {
+                    cache.put(verifiedId, expiryDate);
+                    batch.complete(verifiedId, expiryDate);
+                })
+            );
+        }
+
+        if (!batch.finished.get()) {
+            batch.deadline = deadlines.schedule(batch::expire, deadlineMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static final class Batch {
+
+        private final Map<String, String> expiryDates = new HashMap<>();
+        private final Set<String> pending;
+        private final Set<String> skipped = new HashSet<>();
+        private final ProgressListener progressListener;
+        private final Listener listener;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private final List<Future<?>> futures = Collections.synchronizedList(new ArrayList<>());
+        private volatile ScheduledFuture<?> deadline;
+
+        Batch(Set<String> transactionIds, ProgressListener progressListener, Listener listener) {
+            this.pending = new HashSet<>(transactionIds);
+            this.progressListener = progressListener;
+            this.listener = listener;
+        }
+
+        void complete(String transactionId, String expiryDate) {
+            synchronized (this) {
+                if (finished.get()) {
+                    return;
+                }
+                expiryDates.put(transactionId, expiryDate);
+                pending.remove(transactionId);
+                // Under the lock, so no progress can be reported once finish() has taken its snapshot
+                if (progressListener != null) {
+                    progressListener.onTransactionVerified(transactionId, expiryDate);
+                }
+                if (!pending.isEmpty()) {
+                    return;
+                }
+            }
+
+            finish();
+        }
+
+        void skip(String transactionId) {
+            synchronized (this) {
+                if (finished.get()) {
+                    return;
+                }
+                pending.remove(transactionId);
+                skipped.add(transactionId);
+                if (!pending.isEmpty()) {
+                    return;
+                }
+            }
+
+            finish();
+        }
+
+        void expire() {
+            if (finished.get()) {
+                return;
+            }
+
+            synchronized (this) {
+                Log.w("VERIFY", "Verification deadline passed with " + pending.size() + " transaction(s) outstanding");
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+
+            ScheduledFuture<?> scheduledDeadline = deadline;
+            if (scheduledDeadline != null) {
+                scheduledDeadline.cancel(false);
+            }
+
+            Map<String, String> results;
+            Set<String> partial;
+            boolean outstanding;
+            synchronized (this) {
+                results = new HashMap<>(expiryDates);
+                partial = new HashSet<>(pending);
+                outstanding = !pending.isEmpty();
+                partial.addAll(skipped);
+            }
+
+            if (outstanding) {
+                synchronized (futures) {
+                    for (Future<?> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+
+            listener.onVerified(results, partial);
+        }
+    }
+}
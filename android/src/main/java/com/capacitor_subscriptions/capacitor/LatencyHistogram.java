@@ -0,0 +1,129 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.JSObject;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram with power-of-two millisecond buckets plus a count per response code. Recording is a
+// handful of atomic operations and never allocates, percentiles are only computed when a snapshot is taken and are
+// accurate to the bucket they fall into
+final class LatencyHistogram {
+
+    // Bucket 0 holds 0ms, bucket i holds [2^(i-1), 2^i) ms, the last one everything from ~9 minutes up
+    private static final int BUCKETS = 21;
+    // Response codes are counted in a small open-addressed table: a code claims the first free slot from its hash on.
+    // A histogram sees a handful of different codes, once every slot is taken the rest are counted as "other"
+    private static final int CODE_SLOTS = 16;
+    private static final int NO_CODE = Integer.MIN_VALUE;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicIntegerArray codes = new AtomicIntegerArray(CODE_SLOTS);
+    // One more than there are slots, the last one counts the codes which didn't get a slot
+    private final AtomicLongArray codeCounts = new AtomicLongArray(CODE_SLOTS + 1);
+
+    LatencyHistogram() {
+        for (int i = 0; i < CODE_SLOTS; i++) {
+            codes.set(i, NO_CODE);
+        }
+    }
+
+    void record(long latencyMs, int responseCode) {
+        long latency = Math.max(0, latencyMs);
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latency)));
+        count.incrementAndGet();
+        sum.addAndGet(latency);
+
+        long currentMax;
+        while (latency > (currentMax = max.get()) && !max.compareAndSet(currentMax, latency)) {
+            // another thread raised the max in the meantime, try again
+        }
+
+        codeCounts.incrementAndGet(codeSlot(responseCode));
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    // Accurate to the bucket, like the percentiles in toJSObject
+    long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        return percentile(snapshot, total, percentile, max.get());
+    }
+
+    JSObject toJSObject() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+
+        JSObject responseCodes = new JSObject();
+        for (int i = 0; i < CODE_SLOTS; i++) {
+            int code = codes.get(i);
+            long codeCount = codeCounts.get(i);
+            // A slot can be claimed a moment before its first count lands
+            if (code != NO_CODE && codeCount > 0) {
+                responseCodes.put(String.valueOf(code), codeCount);
+            }
+        }
+        if (codeCounts.get(CODE_SLOTS) > 0) {
+            responseCodes.put("other", codeCounts.get(CODE_SLOTS));
+        }
+
+        long maxMs = max.get();
+        JSObject data = new JSObject();
+        data.put("count", total);
+        data.put("mean", total > 0 ? sum.get() / count.get() : 0);
+        data.put("p50", percentile(snapshot, total, 0.50, maxMs));
+        data.put("p95", percentile(snapshot, total, 0.95, maxMs));
+        data.put("p99", percentile(snapshot, total, 0.99, maxMs));
+        data.put("max", maxMs);
+        data.put("responseCodes", responseCodes);
+        return data;
+    }
+
+    private int codeSlot(int responseCode) {
+        for (int i = 0; i < CODE_SLOTS; i++) {
+            // CODE_SLOTS is a power of two, the mask keeps negative codes in range too
+            int slot = (responseCode + i) & (CODE_SLOTS - 1);
+            int code = codes.get(slot);
+            if (code == NO_CODE) {
+                // Whoever wins the slot, it now holds a code
+                codes.compareAndSet(slot, NO_CODE, responseCode);
+                code = codes.get(slot);
+            }
+            if (code == responseCode) {
+                return slot;
+            }
+        }
+        return CODE_SLOTS;
+    }
+
+    // Upper bound of the bucket the percentile falls into, never more than the largest value actually recorded
+    private static long percentile(long[] snapshot, long total, double percentile, long maxMs) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(maxMs, i == 0 ? 0 : (1L << i) - 1);
+            }
+        }
+        return maxMs;
+    }
+}
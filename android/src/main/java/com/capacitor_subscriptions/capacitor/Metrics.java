@@ -0,0 +1,78 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.JSObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Latency and outcome of every plugin call and of the stages they are made of, so a slow paywall can be pinned on
+// Play, the verification endpoint or the bridge. Stages are a fixed set of histograms, plugin methods get theirs
+// the first time they are called
+class Metrics {
+
+    enum Stage {
+        CONNECT("connect"),
+        PRODUCT_QUERY("productQuery"),
+        PURCHASES_QUERY("purchasesQuery"),
+        VERIFICATION("verification"),
+        ACKNOWLEDGEMENT("acknowledgement");
+
+        final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final ConcurrentHashMap<String, LatencyHistogram> methods = new ConcurrentHashMap<>();
+
+    Metrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    // Monotonic milliseconds. System.nanoTime() instead of SystemClock, which reads 0 in the JVM tests
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    void recordStage(Stage stage, long startedAt, int responseCode) {
+        stages[stage.ordinal()].record(now() - startedAt, responseCode);
+    }
+
+    // startedAt is the start of the call's trace, which comes from now() as well
+    void callFinished(String methodName, long startedAt, int responseCode) {
+        if (methodName == null) {
+            return;
+        }
+
+        LatencyHistogram histogram = methods.get(methodName);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = methods.putIfAbsent(methodName, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(now() - startedAt, responseCode);
+    }
+
+    JSObject toJSObject() {
+        JSObject stageData = new JSObject();
+        for (Stage stage : Stage.values()) {
+            stageData.put(stage.key, stages[stage.ordinal()].toJSObject());
+        }
+
+        JSObject methodData = new JSObject();
+        for (Map.Entry<String, LatencyHistogram> entry : methods.entrySet()) {
+            methodData.put(entry.getKey(), entry.getValue().toJSObject());
+        }
+
+        JSObject data = new JSObject();
+        data.put("methods", methodData);
+        data.put("stages", stageData);
+        return data;
+    }
+}
@@ -0,0 +1,150 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.android.billingclient.api.ProductDetails;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The subscription offers of one product, flattened out of ProductDetails' nested lists once when the details are
+// fetched and indexed by base plan, offer ID and tag. Picking the offer for a purchase is then a hash lookup instead
+// of a walk over every offer and its pricing phases. One-time products have no offers, their index is empty
+final class OfferIndex {
+
+    static final class Offer {
+
+        final String basePlanId;
+        // Null for the base plan itself
+        final String offerId;
+        final String offerToken;
+        final List<String> tags;
+        final List<ProductDetails.PricingPhase> pricingPhases;
+
+        Offer(ProductDetails.SubscriptionOfferDetails details) {
+            this.basePlanId = details.getBasePlanId();
+            this.offerId = details.getOfferId();
+            this.offerToken = details.getOfferToken();
+            this.tags = details.getOfferTags() != null ? details.getOfferTags() : Collections.emptyList();
+            this.pricingPhases = details.getPricingPhases() != null && details.getPricingPhases().getPricingPhaseList() != null
+                ? details.getPricingPhases().getPricingPhaseList()
+                : Collections.emptyList();
+        }
+
+        JSObject toJSObject() {
+            JSArray phases = new JSArray();
+            for (ProductDetails.PricingPhase phase : pricingPhases) {
+                phases.put(
+                    new JSObject()
+                        .put("formattedPrice", phase.getFormattedPrice())
+                        .put("priceAmountMicros", phase.getPriceAmountMicros())
+                        .put("priceCurrencyCode", phase.getPriceCurrencyCode())
+                        .put("billingPeriod", phase.getBillingPeriod())
+                        .put("billingCycleCount", phase.getBillingCycleCount())
+                        .put("recurrenceMode", phase.getRecurrenceMode())
+                );
+            }
+
+            return new JSObject()
+                .put("basePlanId", basePlanId)
+                .put("offerId", offerId)
+                .put("offerTags", new JSArray(tags))
+                .put("pricingPhases", phases);
+        }
+    }
+
+    static final OfferIndex EMPTY = new OfferIndex(Collections.emptyList());
+
+    // In the order Play returned them, the first one is what purchases without an offer selection use
+    private final List<Offer> offers;
+    // Offer IDs are only unique within their base plan, so they are keyed as "basePlanId/offerId"
+    private final Map<String, Offer> byOfferKey = new HashMap<>();
+    // First offer with each offer ID, for lookups which don't name the base plan
+    private final Map<String, Offer> byOfferId = new HashMap<>();
+    // The base plan offer (without an offer ID) of every base plan
+    private final Map<String, Offer> byBasePlan = new HashMap<>();
+    private final Map<String, List<Offer>> byTag = new HashMap<>();
+
+    private OfferIndex(List<Offer> offers) {
+        this.offers = offers;
+
+        for (Offer offer : offers) {
+            if (offer.offerId == null) {
+                byBasePlan.put(offer.basePlanId, offer);
+            } else {
+                byOfferKey.put(offer.basePlanId + "/" + offer.offerId, offer);
+                if (!byOfferId.containsKey(offer.offerId)) {
+                    byOfferId.put(offer.offerId, offer);
+                }
+            }
+
+            for (String tag : offer.tags) {
+                List<Offer> tagged = byTag.get(tag);
+                if (tagged == null) {
+                    tagged = new ArrayList<>();
+                    byTag.put(tag, tagged);
+                }
+                tagged.add(offer);
+            }
+        }
+    }
+
+    static OfferIndex of(ProductDetails productDetails) {
+        List<ProductDetails.SubscriptionOfferDetails> offerDetails = productDetails.getSubscriptionOfferDetails();
+        if (offerDetails == null || offerDetails.isEmpty()) {
+            return EMPTY;
+        }
+
+        List<Offer> offers = new ArrayList<>(offerDetails.size());
+        for (ProductDetails.SubscriptionOfferDetails details : offerDetails) {
+            offers.add(new Offer(details));
+        }
+        return new OfferIndex(Collections.unmodifiableList(offers));
+    }
+
+    boolean isEmpty() {
+        return offers.isEmpty();
+    }
+
+    // Null when the product has no offers
+    Offer getDefault() {
+        return offers.isEmpty() ? null : offers.get(0);
+    }
+
+    // All arguments are optional. An offer ID wins over a tag, a base plan on its own selects the base plan offer and
+    // narrows the other two down. Without any of them the default offer is returned, null if nothing matches
+    Offer find(String basePlanId, String offerId, String offerTag) {
+        if (offerId != null) {
+            return basePlanId != null ? byOfferKey.get(basePlanId + "/" + offerId) : byOfferId.get(offerId);
+        }
+
+        if (offerTag != null) {
+            List<Offer> tagged = byTag.get(offerTag);
+            if (tagged == null) {
+                return null;
+            }
+            for (Offer offer : tagged) {
+                if (basePlanId == null || basePlanId.equals(offer.basePlanId)) {
+                    return offer;
+                }
+            }
+            return null;
+        }
+
+        if (basePlanId != null) {
+            return byBasePlan.get(basePlanId);
+        }
+
+        return getDefault();
+    }
+
+    JSArray toJSArray() {
+        JSArray data = new JSArray();
+        for (Offer offer : offers) {
+            data.put(offer.toJSObject());
+        }
+        return data;
+    }
+}
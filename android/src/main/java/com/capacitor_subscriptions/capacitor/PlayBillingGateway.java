@@ -0,0 +1,67 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.app.Activity;
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.QueryProductDetailsParams;
+import com.android.billingclient.api.QueryPurchasesParams;
+import java.util.ArrayList;
+import java.util.List;
+
+class PlayBillingGateway implements BillingGateway {
+
+    private final BillingClient billingClient;
+
+    PlayBillingGateway(BillingClient billingClient) {
+        this.billingClient = billingClient;
+    }
+
+    @Override
+    public void startConnection(BillingClientStateListener listener) {
+        billingClient.startConnection(listener);
+    }
+
+    @Override
+    public void queryProductDetails(List<String> productIdentifiers, String productType, ProductDetailsResponseListener listener) {
+        List<QueryProductDetailsParams.Product> products = new ArrayList<>();
+        for (String productIdentifier : productIdentifiers) {
+            products.add(QueryProductDetailsParams.Product.newBuilder().setProductId(productIdentifier).setProductType(productType).build());
+        }
+
+        billingClient.queryProductDetailsAsync(QueryProductDetailsParams.newBuilder().setProductList(products).build(), listener);
+    }
+
+    @Override
+    public void queryPurchases(String productType, PurchasesResponseListener listener) {
+        billingClient.queryPurchasesAsync(QueryPurchasesParams.newBuilder().setProductType(productType).build(), listener);
+    }
+
+    @Override
+    public void acknowledgePurchase(String purchaseToken, AcknowledgePurchaseResponseListener listener) {
+        billingClient.acknowledgePurchase(AcknowledgePurchaseParams.newBuilder().setPurchaseToken(purchaseToken).build(), listener);
+    }
+
+    @Override
+    public BillingResult launchBillingFlow(Activity activity, ProductDetails productDetails, String offerToken, String accountId) {
+        BillingFlowParams.ProductDetailsParams.Builder productDetailsParams = BillingFlowParams.ProductDetailsParams.newBuilder()
+            .setProductDetails(productDetails);
+        // One-time products are bought without an offer token
+        if (offerToken != null) {
+            productDetailsParams.setOfferToken(offerToken);
+        }
+
+        BillingFlowParams.Builder builder = BillingFlowParams.newBuilder().setProductDetailsParamsList(List.of(productDetailsParams.build()));
+        if (accountId != null) {
+            builder.setObfuscatedAccountId(accountId);
+        }
+
+        return billingClient.launchBillingFlow(activity, builder.build());
+    }
+}
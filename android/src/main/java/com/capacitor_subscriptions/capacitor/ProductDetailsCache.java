@@ -0,0 +1,75 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.android.billingclient.api.ProductDetails;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps ProductDetails returned by Play around for a while, so showing a paywall and then tapping "buy"
+// costs a single query. Prices and titles are localised, so the whole cache is dropped when the locale changes.
+// Every entry carries the product's OfferIndex, built once when the details arrive
+class ProductDetailsCache {
+
+    private static final class Entry {
+
+        final ProductDetails productDetails;
+        final OfferIndex offers;
+        final long fetchedAt;
+
+        Entry(ProductDetails productDetails, long fetchedAt) {
+            this.productDetails = productDetails;
+            this.offers = OfferIndex.of(productDetails);
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMs;
+    private volatile String locale = Locale.getDefault().toString();
+
+    ProductDetailsCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    ProductDetails get(String productId, String productType) {
+        checkLocale();
+
+        String key = key(productId, productType);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.fetchedAt > ttlMs) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.productDetails;
+    }
+
+    // The index built when these details were cached, or a new one if they have been replaced or dropped since
+    OfferIndex getOffers(ProductDetails productDetails) {
+        Entry entry = entries.get(key(productDetails.getProductId(), productDetails.getProductType()));
+        if (entry != null && entry.productDetails == productDetails) {
+            return entry.offers;
+        }
+        return OfferIndex.of(productDetails);
+    }
+
+    void put(ProductDetails productDetails) {
+        checkLocale();
+        entries.put(key(productDetails.getProductId(), productDetails.getProductType()), new Entry(productDetails, System.currentTimeMillis()));
+    }
+
+    private void checkLocale() {
+        String current = Locale.getDefault().toString();
+        if (!current.equals(locale)) {
+            locale = current;
+            entries.clear();
+        }
+    }
+
+    private static String key(String productId, String productType) {
+        return productType + ":" + productId;
+    }
+}
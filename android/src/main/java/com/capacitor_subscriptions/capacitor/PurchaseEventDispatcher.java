@@ -0,0 +1,125 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Collects the outcome of every purchase reported by the PurchasesUpdatedListener as its own immutable event and
+// sends the events which arrive within a short window as a single ANDROID-PURCHASE-RESPONSE message. During a restore
+// storm this turns dozens of WebView bridge crossings into one, and no two purchases ever share a payload object
+class PurchaseEventDispatcher {
+
+    interface Sink {
+        void emit(JSObject message);
+    }
+
+    static final class PurchaseEvent {
+
+        final boolean successful;
+        final String originalJson;
+        final String purchaseToken;
+        final int errorCode;
+        final String debugMessage;
+
+        private PurchaseEvent(boolean successful, String originalJson, String purchaseToken, int errorCode, String debugMessage) {
+            this.successful = successful;
+            this.originalJson = originalJson;
+            this.purchaseToken = purchaseToken;
+            this.errorCode = errorCode;
+            this.debugMessage = debugMessage;
+        }
+
+        static PurchaseEvent succeeded(Purchase purchase) {
+            return new PurchaseEvent(true, purchase.getOriginalJson(), purchase.getPurchaseToken(), 0, null);
+        }
+
+        static PurchaseEvent failed(Purchase purchase, BillingResult billingResult) {
+            return new PurchaseEvent(
+                false,
+                purchase != null ? purchase.getOriginalJson() : null,
+                purchase != null ? purchase.getPurchaseToken() : null,
+                billingResult.getResponseCode(),
+                billingResult.getDebugMessage()
+            );
+        }
+
+        // Every call builds a fresh event object, so nothing handed to the bridge is ever mutated afterwards. Only the
+        // parsed purchase is shared, it comes from the PurchaseJsonCache and is never modified
+        JSObject toJSObject(PurchaseJsonCache purchaseJsonCache) {
+            JSObject event = new JSObject();
+            event.put("successful", successful);
+
+            if (originalJson != null) {
+                try {
+                    event.put("purchase", purchaseJsonCache.get(purchaseToken, originalJson));
+                } catch (Exception e) {
+                    Log.e("Purchase Response", "Error parsing purchase data: " + e.getMessage());
+                    event.put("purchase", purchaseToken);
+                }
+            }
+
+            if (!successful) {
+                event.put("errorCode", errorCode);
+                event.put("debugMessage", debugMessage);
+            }
+
+            return event;
+        }
+    }
+
+    private final Sink sink;
+    private final long windowMs;
+    private final PurchaseJsonCache purchaseJsonCache;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapSubscriptions-events"));
+
+    // Guarded by this
+    private List<PurchaseEvent> buffer = new ArrayList<>();
+
+    PurchaseEventDispatcher(Sink sink, long windowMs, PurchaseJsonCache purchaseJsonCache) {
+        this.sink = sink;
+        this.windowMs = windowMs;
+        this.purchaseJsonCache = purchaseJsonCache;
+    }
+
+    void dispatch(PurchaseEvent event) {
+        boolean first;
+        synchronized (this) {
+            buffer.add(event);
+            first = buffer.size() == 1;
+        }
+
+        if (first) {
+            scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<PurchaseEvent> events;
+        synchronized (this) {
+            events = buffer;
+            buffer = new ArrayList<>();
+        }
+
+        if (events.isEmpty()) {
+            return;
+        }
+
+        // The top level keeps the shape of a single purchase event so existing listeners keep working,
+        // every event of the window is in the purchases array
+        JSObject message = events.get(0).toJSObject(purchaseJsonCache);
+        JSArray purchases = new JSArray();
+        for (PurchaseEvent event : events) {
+            purchases.put(event.toJSObject(purchaseJsonCache));
+        }
+        message.put("purchases", purchases);
+
+        sink.emit(message);
+    }
+}
@@ -0,0 +1,65 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.android.billingclient.api.AccountIdentifiers;
+import com.android.billingclient.api.Purchase;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-flow settings of purchaseProduct calls, keyed by product and account, so that overlapping purchase flows
+// each keep their own options instead of overwriting a plugin-wide value. The PurchasesUpdatedListener looks the
+// flow up again when Play reports the purchase
+class PurchaseFlows {
+
+    // Flows the user abandoned never get a purchase back, they are cleaned up after this long
+    private static final long FLOW_LIFETIME_MS = 60 * 60 * 1000;
+
+    private static final class Flow {
+
+        final boolean acknowledge;
+        final long startedAt;
+
+        Flow(boolean acknowledge, long startedAt) {
+            this.acknowledge = acknowledge;
+            this.startedAt = startedAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Flow> flows = new ConcurrentHashMap<>();
+
+    void start(String productIdentifier, String accountId, boolean acknowledge) {
+        long now = System.currentTimeMillis();
+
+        Iterator<Map.Entry<String, Flow>> iterator = flows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue().startedAt > FLOW_LIFETIME_MS) {
+                iterator.remove();
+            }
+        }
+
+        flows.put(key(productIdentifier, accountId), new Flow(acknowledge, now));
+    }
+
+    // Purchases which don't belong to a flow of this session (renewals, restores, purchases made on another
+    // device...) are acknowledged, which is what the plugin has always done by default. A flow is only used up once
+    // its purchase is PURCHASED, a pending one keeps it until Play reports the purchase again (or the flow expires)
+    boolean shouldAcknowledge(Purchase purchase) {
+        AccountIdentifiers accountIdentifiers = purchase.getAccountIdentifiers();
+        String accountId = accountIdentifiers != null ? accountIdentifiers.getObfuscatedAccountId() : null;
+        boolean purchased = purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED;
+
+        for (String productIdentifier : purchase.getProducts()) {
+            String key = key(productIdentifier, accountId);
+            Flow flow = purchased ? flows.remove(key) : flows.get(key);
+            if (flow != null) {
+                return flow.acknowledge;
+            }
+        }
+
+        return true;
+    }
+
+    private static String key(String productIdentifier, String accountId) {
+        return productIdentifier + "|" + (accountId != null ? accountId : "");
+    }
+}
@@ -0,0 +1,114 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.Purchase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable view of the user's purchases of both product types, subscriptions and one-time products, indexed by
+// product ID, order ID and purchase token so that per-product lookups are a hash lookup instead of a scan over every
+// purchase. Updates produce a new index, which lets readers on any thread use it without locking
+final class PurchaseIndex {
+
+    static final PurchaseIndex EMPTY = new PurchaseIndex(new LinkedHashMap<>(), new HashMap<>());
+
+    // Keyed by purchase token, subscriptions first, each type in the order Play returned them
+    private final LinkedHashMap<String, Purchase> byToken;
+    // BillingClient.ProductType of every purchase, Purchase itself doesn't say
+    private final Map<String, String> productTypeByToken;
+    private final Map<String, String> productTypeByProduct = new HashMap<>();
+    private final Map<String, Purchase> byOrderId = new HashMap<>();
+    // Most recent purchase per product
+    private final Map<String, Purchase> byProduct = new HashMap<>();
+    private final List<Purchase> purchases;
+
+    private PurchaseIndex(LinkedHashMap<String, Purchase> byToken, Map<String, String> productTypeByToken) {
+        this.byToken = byToken;
+        this.productTypeByToken = productTypeByToken;
+        this.purchases = Collections.unmodifiableList(new ArrayList<>(byToken.values()));
+
+        for (Purchase purchase : purchases) {
+            if (purchase.getOrderId() != null) {
+                byOrderId.put(purchase.getOrderId(), purchase);
+            }
+
+            String productType = productTypeByToken.get(purchase.getPurchaseToken());
+            for (String productId : purchase.getProducts()) {
+                productTypeByProduct.put(productId, productType);
+
+                Purchase current = byProduct.get(productId);
+                if (current == null || current.getPurchaseTime() < purchase.getPurchaseTime()) {
+                    byProduct.put(productId, purchase);
+                }
+            }
+        }
+    }
+
+    // Either list may be null, e.g. when the query for that product type failed
+    static PurchaseIndex of(List<Purchase> subscriptions, List<Purchase> oneTimePurchases) {
+        LinkedHashMap<String, Purchase> byToken = new LinkedHashMap<>();
+        Map<String, String> productTypeByToken = new HashMap<>();
+        add(byToken, productTypeByToken, subscriptions, BillingClient.ProductType.SUBS);
+        add(byToken, productTypeByToken, oneTimePurchases, BillingClient.ProductType.INAPP);
+        return new PurchaseIndex(byToken, productTypeByToken);
+    }
+
+    private static void add(
+        LinkedHashMap<String, Purchase> byToken,
+        Map<String, String> productTypeByToken,
+        List<Purchase> purchases,
+        String productType
+    ) {
+        if (purchases == null) {
+            return;
+        }
+
+        for (Purchase purchase : purchases) {
+            byToken.put(purchase.getPurchaseToken(), purchase);
+            productTypeByToken.put(purchase.getPurchaseToken(), productType);
+        }
+    }
+
+    // Applies the purchases reported by the PurchasesUpdatedListener on top of this index. Play only reports
+    // what changed, so existing purchases are replaced by token and new ones are added. The listener doesn't say
+    // which product type a new purchase is, it's taken from earlier purchases of the same product and otherwise
+    // assumed to be a subscription until the next query (which every update triggers) sets it straight
+    PurchaseIndex withUpdates(List<Purchase> updates) {
+        LinkedHashMap<String, Purchase> byToken = new LinkedHashMap<>(this.byToken);
+        Map<String, String> productTypeByToken = new HashMap<>(this.productTypeByToken);
+        for (Purchase purchase : updates) {
+            byToken.put(purchase.getPurchaseToken(), purchase);
+            if (!productTypeByToken.containsKey(purchase.getPurchaseToken())) {
+                String productType = purchase.getProducts().isEmpty() ? null : productTypeByProduct.get(purchase.getProducts().get(0));
+                productTypeByToken.put(purchase.getPurchaseToken(), productType != null ? productType : BillingClient.ProductType.SUBS);
+            }
+        }
+        return new PurchaseIndex(byToken, productTypeByToken);
+    }
+
+    List<Purchase> getPurchases() {
+        return purchases;
+    }
+
+    Purchase getLatestForProduct(String productId) {
+        return byProduct.get(productId);
+    }
+
+    Purchase getByOrderId(String orderId) {
+        return byOrderId.get(orderId);
+    }
+
+    Purchase getByToken(String purchaseToken) {
+        return byToken.get(purchaseToken);
+    }
+
+    // BillingClient.ProductType.SUBS or INAPP
+    String getProductType(Purchase purchase) {
+        String productType = productTypeByToken.get(purchase.getPurchaseToken());
+        return productType != null ? productType : BillingClient.ProductType.SUBS;
+    }
+}
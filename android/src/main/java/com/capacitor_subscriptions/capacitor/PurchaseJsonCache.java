@@ -0,0 +1,41 @@
+package com.capacitor_subscriptions.capacitor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Play hands out the same purchases over and over (every query, every restore), so the original JSON of each one is
+// parsed once and the result is reused by every response which includes it. The cached objects end up nested in
+// several responses and must never be modified
+final class PurchaseJsonCache {
+
+    private static final int MAX_ENTRIES = 256;
+
+    private static final class Entry {
+
+        final String originalJson;
+        final JSONObject parsed;
+
+        Entry(String originalJson, JSONObject parsed) {
+            this.originalJson = originalJson;
+            this.parsed = parsed;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    JSONObject get(String purchaseToken, String originalJson) throws JSONException {
+        Entry entry = entries.get(purchaseToken);
+        // A token's JSON changes when the purchase does (acknowledged, renewed...), comparing it is still far cheaper than parsing
+        if (entry != null && entry.originalJson.equals(originalJson)) {
+            return entry.parsed;
+        }
+
+        JSONObject parsed = new JSONObject(originalJson);
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(purchaseToken, new Entry(originalJson, parsed));
+        return parsed;
+    }
+}
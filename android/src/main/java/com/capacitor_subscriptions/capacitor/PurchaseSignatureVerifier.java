@@ -0,0 +1,126 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Base64;
+import android.util.Log;
+import com.android.billingclient.api.Purchase;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Checks the signature Play puts on every purchase against the app's license key (Play Console > Monetization
+// setup), so forged purchases never reach the entitlement checks or the verification endpoint. The key is decoded
+// once, every thread keeps its own Signature instance, and the outcome is remembered per purchase token - a purchase
+// is only checked again when Play hands out a different signature for it. Without a key every purchase passes
+final class PurchaseSignatureVerifier {
+
+    // android.util.Base64 is only a stub in JVM tests, they pass java.util.Base64 instead
+    interface Base64Decoder {
+        byte[] decode(String value);
+    }
+
+    static final Base64Decoder ANDROID_BASE64 = value -> Base64.decode(value, Base64.DEFAULT);
+
+    // Play signs purchases with SHA1withRSA
+    private static final String ALGORITHM = "SHA1withRSA";
+    private static final int MAX_ENTRIES = 256;
+
+    private final Base64Decoder base64;
+    private final PublicKey publicKey;
+    // Signatures which passed, keyed by purchase token
+    private final ConcurrentHashMap<String, String> verified = new ConcurrentHashMap<>();
+    private final ThreadLocal<Signature> signatures = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance(ALGORITHM);
+            } catch (Exception e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        }
+    };
+
+    // base64PublicKey is the base64 encoded X.509 RSA key, null or empty turns verification off
+    PurchaseSignatureVerifier(String base64PublicKey) {
+        this(base64PublicKey, ANDROID_BASE64);
+    }
+
+    PurchaseSignatureVerifier(String base64PublicKey, Base64Decoder base64) {
+        this.base64 = base64;
+        this.publicKey = decode(base64PublicKey);
+    }
+
+    private PublicKey decode(String base64PublicKey) {
+        if (base64PublicKey == null || base64PublicKey.isEmpty()) {
+            return null;
+        }
+
+        try {
+            byte[] encoded = base64.decode(base64PublicKey);
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (Exception e) {
+            // Failing open keeps a typo in the config from locking every user out
+            Log.e("SIGNATURE", "Ignoring invalid playPublicKey, purchases are not verified on the device: " + e);
+            return null;
+        }
+    }
+
+    boolean isEnabled() {
+        return publicKey != null;
+    }
+
+    boolean verify(Purchase purchase) {
+        if (publicKey == null) {
+            return true;
+        }
+
+        String purchaseToken = purchase.getPurchaseToken();
+        String signature = purchase.getSignature();
+        if (purchaseToken == null || signature == null || signature.isEmpty()) {
+            return false;
+        }
+        if (signature.equals(verified.get(purchaseToken))) {
+            return true;
+        }
+
+        boolean valid;
+        try {
+            Signature verifier = signatures.get();
+            verifier.initVerify(publicKey);
+            verifier.update(purchase.getOriginalJson().getBytes(StandardCharsets.UTF_8));
+            valid = verifier.verify(base64.decode(signature));
+        } catch (Exception e) {
+            Log.e("SIGNATURE", "Could not verify the signature of " + purchase.getOrderId() + ": " + e);
+            valid = false;
+        }
+
+        if (valid) {
+            if (verified.size() >= MAX_ENTRIES) {
+                verified.clear();
+            }
+            verified.put(purchaseToken, signature);
+        } else {
+            Log.w("SIGNATURE", "Dropping purchase " + purchase.getOrderId() + " with an invalid signature");
+        }
+        return valid;
+    }
+
+    // The purchases whose signature is valid, the list itself if verification is off
+    List<Purchase> filter(List<Purchase> purchases) {
+        if (publicKey == null || purchases == null) {
+            return purchases;
+        }
+
+        List<Purchase> valid = new ArrayList<>(purchases.size());
+        for (Purchase purchase : purchases) {
+            if (verify(purchase)) {
+                valid.add(purchase);
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,152 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Single entry point for queryPurchasesAsync. Subscriptions and one-time products are queried at the same time and
+// merged into one index, so the whole refresh takes as long as the slower of the two queries. Callers arriving while
+// a query is already in flight attach to it instead of starting their own, and the result is kept as an indexed
+// snapshot. Within the snapshot TTL repeated reads are answered from it, after that the next read refreshes it.
+// Purchases reported by the PurchasesUpdatedListener are applied to the snapshot straight away, but also mark it
+// for a refresh since Play doesn't report purchases which went away. With a Play public key configured, purchases
+// with an invalid signature never make it into the index
+class PurchaseStore {
+
+    interface Listener {
+        void onPurchases(BillingResult billingResult, PurchaseIndex purchases);
+    }
+
+    private final BillingGateway billing;
+    private final long snapshotTtlMs;
+    private final Metrics metrics;
+    private final PurchaseSignatureVerifier signatureVerifier;
+
+    // Last known state, readable without a lock and without a Billing round trip. Null until the first query
+    private volatile PurchaseIndex index;
+
+    // Guarded by this
+    private List<Listener> waiting;
+    private BillingResult snapshotResult;
+    private long snapshotAt;
+
+    PurchaseStore(BillingGateway billing, long snapshotTtlMs, Metrics metrics, PurchaseSignatureVerifier signatureVerifier) {
+        this.billing = billing;
+        this.snapshotTtlMs = snapshotTtlMs;
+        this.metrics = metrics;
+        this.signatureVerifier = signatureVerifier;
+    }
+
+    PurchaseIndex getIndex() {
+        return index;
+    }
+
+    // Must only be called while the BillingClient is connected
+    void query(Listener listener) {
+        PurchaseIndex fresh = null;
+        BillingResult freshResult = null;
+        List<Listener> flight;
+
+        synchronized (this) {
+            if (snapshotResult != null && System.currentTimeMillis() - snapshotAt < snapshotTtlMs) {
+                fresh = index;
+                freshResult = snapshotResult;
+                flight = null;
+            } else if (waiting != null) {
+                waiting.add(listener);
+                return;
+            } else {
+                flight = new ArrayList<>();
+                flight.add(listener);
+                waiting = flight;
+            }
+        }
+
+        if (fresh != null) {
+            listener.onPurchases(freshResult, fresh);
+            return;
+        }
+
+        new Refresh(flight).start();
+    }
+
+    private void publish(List<Listener> flight, BillingResult billingResult, PurchaseIndex result) {
+        List<Listener> listeners;
+
+        synchronized (this) {
+            // Only keep the result if nothing changed while the query was running, an update in the
+            // meantime detached this flight so the result might already be out of date
+            if (waiting == flight) {
+                waiting = null;
+                if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                    index = result;
+                    snapshotResult = billingResult;
+                    snapshotAt = System.currentTimeMillis();
+                }
+            }
+            listeners = new ArrayList<>(flight);
+        }
+
+        for (Listener waitingListener : listeners) {
+            waitingListener.onPurchases(billingResult, result);
+        }
+    }
+
+    // Both queries of one flight. The second one to come back merges the two, with the first error if there was one
+    private final class Refresh {
+
+        private final List<Listener> flight;
+        private final long startedAt = Metrics.now();
+        private final AtomicReference<List<Purchase>> subscriptions = new AtomicReference<>();
+        private final AtomicReference<List<Purchase>> oneTimePurchases = new AtomicReference<>();
+        private final AtomicReference<BillingResult> failure = new AtomicReference<>();
+        private final AtomicInteger remaining = new AtomicInteger(2);
+
+        Refresh(List<Listener> flight) {
+            this.flight = flight;
+        }
+
+        void start() {
+            billing.queryPurchases(BillingClient.ProductType.SUBS, (billingResult, purchases) ->
+                onResult(billingResult, purchases, subscriptions)
+            );
+            billing.queryPurchases(BillingClient.ProductType.INAPP, (billingResult, purchases) ->
+                onResult(billingResult, purchases, oneTimePurchases)
+            );
+        }
+
+        private void onResult(BillingResult typeResult, List<Purchase> purchases, AtomicReference<List<Purchase>> purchasesOfType) {
+            metrics.recordStage(Metrics.Stage.PURCHASES_QUERY, startedAt, typeResult.getResponseCode());
+            if (typeResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+                failure.compareAndSet(null, typeResult);
+            }
+            purchasesOfType.set(signatureVerifier.filter(purchases));
+
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+
+            BillingResult billingResult = failure.get() != null ? failure.get() : typeResult;
+            publish(flight, billingResult, PurchaseIndex.of(subscriptions.get(), oneTimePurchases.get()));
+        }
+    }
+
+    // Called with the delta reported by the PurchasesUpdatedListener
+    synchronized void applyUpdates(List<Purchase> purchases) {
+        PurchaseIndex current = index;
+        if (current != null) {
+            index = current.withUpdates(signatureVerifier.filter(purchases));
+        }
+        invalidate();
+    }
+
+    // Forces the next read to go to Play, e.g. after the BillingClient had to reconnect
+    synchronized void invalidate() {
+        snapshotResult = null;
+        waiting = null;
+    }
+}
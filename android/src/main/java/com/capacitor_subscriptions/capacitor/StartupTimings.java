@@ -0,0 +1,64 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Records what the plugin costs during app startup. Every milestone is kept in milliseconds since load() started
+// and only its first occurrence counts, later reconnects and queries don't overwrite it
+class StartupTimings {
+
+    private static final long UNSET = -1;
+
+    private final long loadStartedAt = Metrics.now();
+    private final AtomicLong loadFinished = new AtomicLong(UNSET);
+    private final AtomicLong connectStarted = new AtomicLong(UNSET);
+    private final AtomicLong setupFinished = new AtomicLong(UNSET);
+    private final AtomicLong firstQuery = new AtomicLong(UNSET);
+    private final String startupMode;
+
+    StartupTimings(String startupMode) {
+        this.startupMode = startupMode;
+    }
+
+    void markLoadFinished() {
+        mark(loadFinished);
+    }
+
+    void markConnectStarted() {
+        mark(connectStarted);
+    }
+
+    void markSetupFinished() {
+        mark(setupFinished);
+    }
+
+    // The first query Play answered with OK, products or purchases
+    void markFirstQuery() {
+        if (mark(firstQuery)) {
+            Log.i("STARTUP", toJSObject().toString());
+        }
+    }
+
+    JSObject toJSObject() {
+        JSObject data = new JSObject();
+        data.put("startupMode", startupMode);
+        put(data, "loadDuration", loadFinished);
+        put(data, "connectStarted", connectStarted);
+        put(data, "setupFinished", setupFinished);
+        put(data, "firstQuery", firstQuery);
+        return data;
+    }
+
+    private boolean mark(AtomicLong milestone) {
+        return milestone.compareAndSet(UNSET, Metrics.now() - loadStartedAt);
+    }
+
+    // Milestones which weren't reached yet are left out
+    private static void put(JSObject data, String key, AtomicLong milestone) {
+        long value = milestone.get();
+        if (value != UNSET) {
+            data.put(key, value);
+        }
+    }
+}
@@ -2,72 +2,184 @@ package com.capacitor_subscriptions.capacitor;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
 import android.util.Log;
-import androidx.annotation.NonNull;
 
 // Google Play Billing imports
 import com.android.billingclient.api.BillingClient;
-import com.android.billingclient.api.BillingClientStateListener;
-import com.android.billingclient.api.BillingFlowParams;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ProductDetails;
 import com.android.billingclient.api.Purchase;
-import com.android.billingclient.api.QueryProductDetailsParams;
-import com.android.billingclient.api.QueryPurchasesParams;
 
 // Capacitor imports
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Logger;
 import com.getcapacitor.PluginCall;
 
 // Java utilities
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Subscriptions {
 
+    // Play doesn't document a hard limit for a single product details query, 20 is what the old
+    // SkuDetails API enforced and still keeps the individual responses small
+    private static final int MAX_PRODUCTS_PER_QUERY = 20;
+    // In idle startup mode, connect after this long even if the main thread never went idle (e.g. a looping animation)
+    private static final long IDLE_STARTUP_FALLBACK_MS = 5000;
+    private static final String[] PRODUCT_TYPES = { BillingClient.ProductType.SUBS, BillingClient.ProductType.INAPP };
+
     private final Activity activity;
-    public Context context;
-    private final BillingClient billingClient;
-    private int billingClientIsConnected = 0;
+    private final BillingGateway billing;
+    private final BillingConnection connection;
+    private final SubscriptionsConfig config;
+    private final VerificationClient verificationClient;
+    private final ExpiryCache expiryCache;
+    private final ExpiryVerifier expiryVerifier;
+    private final ProductDetailsCache productDetailsCache;
+    private final PurchaseSignatureVerifier signatureVerifier;
+    private final PurchaseStore purchaseStore;
+    private final AcknowledgementQueue acknowledgementQueue;
+    private final EntitlementStore entitlementStore;
+    private final StartupTimings startupTimings;
+    private final Metrics metrics = new Metrics();
+    private final Tracer tracer;
+    private final PurchaseJsonCache purchaseJsonCache = new PurchaseJsonCache();
+    // Flushes the pages of streaming getCurrentEntitlements calls which didn't fill up in time
+    private final ScheduledExecutorService streamScheduler = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("CapSubscriptions-stream")
+    );
+    private final EntitlementDiff entitlementDiff = new EntitlementDiff();
+    private final EntitlementRefresher entitlementRefresher;
+    // At most one revalidation runs at a time, requests arriving meanwhile are folded into a single rerun
+    private final Object revalidationLock = new Object();
+    // Guarded by revalidationLock
+    private boolean revalidating = false;
+    private boolean revalidateAgain = false;
+    // Wall clock time of the last stored refresh, revalidations within the purchases snapshot TTL are skipped
+    private volatile long lastStoredAt = 0;
+    private volatile EntitlementsListener entitlementsListener;
+    private volatile EntitlementsDiffListener entitlementsDiffListener;
 
-    private String apiEndpoint = "";
-    private String jwt = "";
     private String productId = "";
 
-    public Subscriptions(SubscriptionsPlugin plugin, BillingClient billingClient) {
-        this.billingClient = billingClient;
-        this.billingClient.startConnection(
-                new BillingClientStateListener() {
-                    @Override
-                    public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
-                        if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-                            billingClientIsConnected = 1;
-                        } else {
-                            billingClientIsConnected = billingResult.getResponseCode();
-                        }
-                    }
-
-                    @Override
-                    public void onBillingServiceDisconnected() {
-                        // Try to restart the connection on the next request to
-                        // Google Play by calling the startConnection() method.
-                    }
+    // Everything Android specific is passed in, so the JVM tests can build a complete instance around a fake BillingGateway
+    Subscriptions(
+        Activity activity,
+        File storageDirectory,
+        BillingGateway billing,
+        VerificationClient.ResponseParser responseParser,
+        SubscriptionsConfig config,
+        StartupTimings startupTimings
+    ) {
+        this.activity = activity;
+        this.billing = billing;
+        this.config = config;
+        this.startupTimings = startupTimings;
+        this.tracer = new Tracer(config.traceBufferSize);
+        this.verificationClient = new VerificationClient(config, metrics, responseParser);
+        this.expiryCache = new ExpiryCache(storageDirectory, config.expiryCacheTtlMs, config.expiryCacheSize);
+        this.expiryCache.preload();
+        this.expiryVerifier = new ExpiryVerifier(verificationClient, expiryCache);
+        this.productDetailsCache = new ProductDetailsCache(config.productCacheTtlMs);
+        this.signatureVerifier = new PurchaseSignatureVerifier(config.playPublicKey);
+        this.purchaseStore = new PurchaseStore(billing, config.purchasesSnapshotTtlMs, metrics, signatureVerifier);
+        this.connection = new BillingConnection(billing, config.billingQueueTimeoutMs, startupTimings, metrics);
+        // Purchases may have changed while Play was unreachable, so every (re)connect refreshes the snapshot.
+        // This query runs before any queued call, which makes it the first purchase query of the session
+        this.connection.setListener(() -> {
+            purchaseStore.invalidate();
+            purchaseStore.query((billingResult, purchases) -> {
+                if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                    startupTimings.markFirstQuery();
                 }
-            );
-        this.activity = plugin.getActivity();
-        this.context = plugin.getContext();
+            });
+        });
+        startConnection();
+        this.acknowledgementQueue = new AcknowledgementQueue(billing, connection, storageDirectory, metrics);
+        this.acknowledgementQueue.replay();
+        this.entitlementStore = new EntitlementStore(storageDirectory);
+        this.entitlementStore.preload();
+        this.entitlementRefresher = new EntitlementRefresher(config.entitlementRefreshIntervalMs, () -> revalidateEntitlements(false), this::isPowerSaveMode);
+    }
+
+    // Background refreshes only run while the app is in the foreground
+    public void onResume() {
+        entitlementRefresher.resume();
+    }
+
+    public void onPause() {
+        entitlementRefresher.pause();
+    }
+
+    private boolean isPowerSaveMode() {
+        PowerManager powerManager = activity != null ? (PowerManager) activity.getSystemService(Context.POWER_SERVICE) : null;
+        return powerManager != null && powerManager.isPowerSaveMode();
+    }
+
+    // The replay of unacknowledged purchases only connects if there is anything to replay, so in lazy mode
+    // a session without purchase activity never binds to Play at all
+    private void startConnection() {
+        switch (config.startupMode) {
+            case SubscriptionsConfig.STARTUP_EAGER:
+                connection.connect();
+                break;
+            case SubscriptionsConfig.STARTUP_IDLE:
+                // load() runs while the app is still busy drawing its first frame, connecting once the main thread
+                // has nothing left to do keeps the service binding out of the way. connect() ignores the second trigger
+                Handler handler = new Handler(Looper.getMainLooper());
+                handler.post(() ->
+                    Looper.myQueue().addIdleHandler(() -> {
+                        connection.connect();
+                        return false;
+                    })
+                );
+                handler.postDelayed(connection::connect, IDLE_STARTUP_FALLBACK_MS);
+                break;
+            default:
+                // Lazy, the first call which needs Play connects through BillingConnection.execute
+                break;
+        }
+    }
+
+    PurchaseJsonCache getPurchaseJsonCache() {
+        return purchaseJsonCache;
+    }
+
+    public JSObject getMetrics() {
+        return metrics.toJSObject();
+    }
+
+    // The most recent traces, oldest first
+    public JSObject getTraces() {
+        return tracer.toJSObject();
+    }
+
+    public JSObject getStartupMetrics() {
+        return startupTimings.toJSObject();
+    }
+
+    // State of the verification endpoint's circuit breaker and hedging counters
+    public JSObject getVerificationStatus() {
+        return verificationClient.getStatus().put("localVerification", signatureVerifier.isEnabled());
+    }
+
+    public void setVerificationStatusListener(CircuitBreaker.Listener listener) {
+        verificationClient.setBreakerListener(listener);
     }
 
     public String echo(String value) {
@@ -76,50 +188,221 @@ public class Subscriptions {
     }
 
     public void setApiVerificationDetails(String apiEndpoint, String jwt, String productId) {
-        this.apiEndpoint = apiEndpoint;
-        this.jwt = jwt;
         this.productId = productId;
+        this.verificationClient.setCredentials(apiEndpoint, jwt);
 
         Log.i("SET-VERIFY", "Verification values updated");
     }
 
-    public void getProductDetails(String productIdentifier, PluginCall call) {
-        JSObject response = new JSObject();
+    // Called by the plugin's PurchasesUpdatedListener, anything Play reports as changed has to be verified again
+    public void onPurchasesUpdated(List<Purchase> purchases) {
+        ArrayList<String> orderIds = new ArrayList<>();
+        for (Purchase purchase : purchases) {
+            orderIds.add(purchase.getOrderId());
+        }
+        expiryCache.invalidate(orderIds);
+        purchaseStore.applyUpdates(purchases);
+
+        // Keep the offline store in line with Play, but only for apps which use it
+        if (entitlementStore.hasEntries()) {
+            revalidateEntitlements(true);
+        }
+    }
+
+    interface EntitlementsListener {
+        // Called whenever a revalidation produced different entitlements than the ones stored before
+        void onEntitlementsChanged(JSObject event);
+    }
+
+    public void setEntitlementsListener(EntitlementsListener entitlementsListener) {
+        this.entitlementsListener = entitlementsListener;
+    }
+
+    interface EntitlementsDiffListener {
+        // Called with { added, renewed, expired } whenever a refresh changed any of them
+        void onEntitlementsDiff(JSObject diff);
+    }
+
+    public void setEntitlementsDiffListener(EntitlementsDiffListener entitlementsDiffListener) {
+        this.entitlementsDiffListener = entitlementsDiffListener;
+    }
+
+    // Whether Play's signature on the purchase matches playPublicKey, always true when no key is configured
+    public boolean verifySignature(Purchase purchase) {
+        return signatureVerifier.verify(purchase);
+    }
+
+    // Journals the purchase token and keeps retrying until Play has acknowledged it, the callback fires once at the end
+    public void acknowledgePurchase(Purchase purchase, AcknowledgementQueue.Callback callback) {
+        acknowledgementQueue.enqueue(purchase.getPurchaseToken(), callback);
+    }
+
+    public JSObject getExpiryCacheStats() {
+        return new JSObject()
+            .put("hits", expiryCache.getHits())
+            .put("misses", expiryCache.getMisses())
+            .put("size", expiryCache.size());
+    }
+
+    interface ProductDetailsListener {
+        // productDetails only holds the products Play knows about, keyed by product ID
+        void onProductDetails(BillingResult billingResult, Map<String, ProductDetails> productDetails);
+    }
+
+    // Answers from the ProductDetails cache where possible and only asks Play for the products it is missing.
+    // Larger lists are split into batches which are all queried at the same time. Without a productType, the
+    // missing products are looked up as subscriptions and as one-time products at the same time
+    private void loadProductDetails(
+        List<String> productIdentifiers,
+        String productType,
+        Tracer.Trace trace,
+        ProductDetailsListener listener
+    ) {
+        String[] productTypes = productType != null ? new String[] { productType } : PRODUCT_TYPES;
+        Map<String, ProductDetails> found = new ConcurrentHashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        for (String productIdentifier : new LinkedHashSet<>(productIdentifiers)) {
+            ProductDetails cached = null;
+            for (int i = 0; i < productTypes.length && cached == null; i++) {
+                cached = productDetailsCache.get(productIdentifier, productTypes[i]);
+            }
+
+            if (cached != null) {
+                found.put(productIdentifier, cached);
+            } else {
+                missing.add(productIdentifier);
+            }
+        }
 
-        if (billingClientIsConnected == 1) {
-            QueryProductDetailsParams.Product productToFind = QueryProductDetailsParams.Product.newBuilder()
-                .setProductId(productIdentifier)
-                .setProductType(BillingClient.ProductType.SUBS)
-                .build();
+        if (missing.isEmpty()) {
+            listener.onProductDetails(BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(), found);
+            return;
+        }
+
+        int batches = (missing.size() + MAX_PRODUCTS_PER_QUERY - 1) / MAX_PRODUCTS_PER_QUERY;
+        AtomicInteger remaining = new AtomicInteger(batches * productTypes.length);
+        AtomicReference<BillingResult> failure = new AtomicReference<>();
+
+        for (String batchType : productTypes) {
+            for (int start = 0; start < missing.size(); start += MAX_PRODUCTS_PER_QUERY) {
+                List<String> batch = new ArrayList<>(missing.subList(start, Math.min(start + MAX_PRODUCTS_PER_QUERY, missing.size())));
+                queryProductDetailsBatch(batch, batchType, trace, found, remaining, failure, listener);
+            }
+        }
+    }
+
+    private void queryProductDetailsBatch(
+        List<String> batch,
+        String productType,
+        Tracer.Trace trace,
+        Map<String, ProductDetails> found,
+        AtomicInteger remaining,
+        AtomicReference<BillingResult> failure,
+        ProductDetailsListener listener
+    ) {
+        long startedAt = Metrics.now();
+
+        billing.queryProductDetails(batch, productType, (billingResult, productDetailsList) -> {
+            metrics.recordStage(Metrics.Stage.PRODUCT_QUERY, startedAt, billingResult.getResponseCode());
+            trace.recordSpan("productQuery", startedAt, billingResult.getResponseCode(), productType + " x" + batch.size());
+            if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+                failure.compareAndSet(null, billingResult);
+            } else {
+                startupTimings.markFirstQuery();
+            }
+
+            if (productDetailsList != null) {
+                for (ProductDetails productDetails : productDetailsList) {
+                    productDetailsCache.put(productDetails);
+                    found.put(productDetails.getProductId(), productDetails);
+                }
+            }
+
+            // Only the last batch to come back reports to the listener, with the first error if there was one
+            if (remaining.decrementAndGet() == 0) {
+                listener.onProductDetails(failure.get() != null ? failure.get() : billingResult, found);
+            }
+        });
+    }
+
+    private JSObject buildProductData(ProductDetails productDetails) {
+        OfferIndex offers = productDetailsCache.getOffers(productDetails);
+        String price;
+        if (BillingClient.ProductType.INAPP.equals(productDetails.getProductType())) {
+            price = Objects.requireNonNull(productDetails.getOneTimePurchaseOfferDetails()).getFormattedPrice();
+        } else {
+            // price stays what it always was, the first phase of the default offer
+            price = Objects.requireNonNull(offers.getDefault()).pricingPhases.get(0).getFormattedPrice();
+        }
+
+        JSObject data = new JSObject();
+        data.put("productIdentifier", productDetails.getProductId());
+        data.put("productType", productDetails.getProductType());
+        data.put("displayName", productDetails.getTitle());
+        data.put("description", productDetails.getDescription());
+        data.put("price", price);
+        data.put("offers", offers.toJSArray());
+        return data;
+    }
+
+    // Every plugin call is started through here
+    private Tracer.Trace startCall(PluginCall call) {
+        return tracer.start(call);
+    }
+
+    // Every plugin call started with startCall is resolved through here, so its latency, outcome and trace are recorded.
+    // The response carries the trace ID, which is also what the verification endpoint saw in X-Trace-Id
+    private void resolve(PluginCall call, JSObject response) {
+        Integer responseCode = response.getInteger("responseCode");
+        int code = responseCode != null ? responseCode : 0;
+        // Calls which were never started (e.g. answered synchronously by the plugin) have no trace and aren't recorded
+        Tracer.Trace trace = tracer.finish(call, code);
+        if (trace != null) {
+            metrics.callFinished(call.getMethodName(), trace.startedAt, code);
+            response.put("traceId", trace.traceId);
+        }
+        call.resolve(response);
+    }
+
+    // Runs the action once the BillingClient is connected, or resolves the call with the connection's error
+    // if it doesn't connect within the configured queue timeout
+    private void whenConnected(PluginCall call, Tracer.Trace trace, Runnable action) {
+        long startedAt = Metrics.now();
+        connection.execute(
+            new BillingConnection.Task() {
+                @Override
+                public void run() {
+                    trace.recordSpan("connection", startedAt, BillingClient.BillingResponseCode.OK, null);
+                    action.run();
+                }
+
+                @Override
+                public void fail(int responseCode, String responseMessage) {
+                    trace.recordSpan("connection", startedAt, responseCode, responseMessage);
+                    JSObject response = new JSObject();
+                    response.put("responseCode", responseCode);
+                    response.put("responseMessage", responseMessage);
+                    resolve(call, response);
+                }
+            }
+        );
+    }
 
-            QueryProductDetailsParams queryProductDetailsParams = QueryProductDetailsParams.newBuilder()
-                .setProductList(List.of(productToFind))
-                .build();
+    // productType is BillingClient.ProductType.SUBS or INAPP, or null to look the product up as either
+    public void getProductDetails(String productIdentifier, String productType, PluginCall call) {
+        Tracer.Trace trace = startCall(call);
+        JSObject response = new JSObject();
 
-            billingClient.queryProductDetailsAsync(queryProductDetailsParams, (billingResult, productDetailsList) -> {
+        whenConnected(call, trace, () -> {
+            loadProductDetails(List.of(productIdentifier), productType, trace, (billingResult, productDetailsMap) -> {
                 try {
-                    ProductDetails productDetails = productDetailsList.get(0);
-                    String productId = productDetails.getProductId();
-                    String title = productDetails.getTitle();
-                    String desc = productDetails.getDescription();
-                    Log.i("productIdentifier", productId);
-                    Log.i("displayName", title);
-                    Log.i("desc", desc);
-
-                    List<ProductDetails.SubscriptionOfferDetails> subscriptionOfferDetails = productDetails.getSubscriptionOfferDetails();
-
-                    String price = Objects.requireNonNull(subscriptionOfferDetails)
-                        .get(0)
-                        .getPricingPhases()
-                        .getPricingPhaseList()
-                        .get(0)
-                        .getFormattedPrice();
+                    ProductDetails productDetails = Objects.requireNonNull(productDetailsMap.get(productIdentifier));
+                    Log.i("productIdentifier", productDetails.getProductId());
+                    Log.i("displayName", productDetails.getTitle());
+                    Log.i("desc", productDetails.getDescription());
 
-                    JSObject data = new JSObject();
-                    data.put("productIdentifier", productId);
-                    data.put("displayName", title);
-                    data.put("description", desc);
-                    data.put("price", price);
+                    JSObject data = buildProductData(productDetails);
 
                     response.put("responseCode", 0);
                     response.put("responseMessage", "Successfully found the product details for given productIdentifier");
@@ -130,223 +413,474 @@ public class Subscriptions {
                     response.put("responseMessage", "Could not find a product matching the given productIdentifier");
                 }
 
-                call.resolve(response);
+                resolve(call, response);
             });
-        } else if (billingClientIsConnected == 2) {
-            response.put("responseCode", 500);
-            response.put("responseMessage", "Android: BillingClient failed to initialise");
-            call.resolve(response);
-        } else {
-            response.put("responseCode", billingClientIsConnected);
-            response.put("responseMessage", "Android: BillingClient failed to initialise");
+        });
+    }
 
-            response.put("responseCode", 503);
-            response.put("responseMessage", "Android: BillingClient is still initialising");
-            call.resolve(response);
-        }
+    // Batch variant of getProductDetails, the result is keyed by product ID and every entry carries its own responseCode
+    public void getProductsDetails(List<String> productIdentifiers, String productType, PluginCall call) {
+        Tracer.Trace trace = startCall(call);
+        JSObject response = new JSObject();
+
+        whenConnected(call, trace, () -> {
+            loadProductDetails(productIdentifiers, productType, trace, (billingResult, productDetailsMap) -> {
+                JSObject data = new JSObject();
+                int foundCount = 0;
+
+                for (String productIdentifier : productIdentifiers) {
+                    JSObject item = new JSObject();
+                    try {
+                        item.put("data", buildProductData(Objects.requireNonNull(productDetailsMap.get(productIdentifier))));
+                        item.put("responseCode", 0);
+                        item.put("responseMessage", "Successfully found the product details for given productIdentifier");
+                        foundCount++;
+                    } catch (Exception e) {
+                        item.put("responseCode", 1);
+                        item.put("responseMessage", "Could not find a product matching the given productIdentifier");
+                    }
+                    data.put(productIdentifier, item);
+                }
+
+                if (foundCount > 0) {
+                    response.put("responseCode", 0);
+                    response.put("responseMessage", "Successfully found the product details for given productIdentifiers");
+                } else {
+                    response.put("responseCode", 1);
+                    response.put("responseMessage", "Could not find any product matching the given productIdentifiers");
+                }
+                response.put("data", data);
+                resolve(call, response);
+            });
+        });
+    }
+
+    // Warms the ProductDetails cache so that a later getProductDetails or purchaseProduct call doesn't have to wait for Play
+    public void prefetchProducts(List<String> productIdentifiers, String productType, PluginCall call) {
+        Tracer.Trace trace = startCall(call);
+        JSObject response = new JSObject();
+
+        whenConnected(call, trace, () -> {
+            loadProductDetails(productIdentifiers, productType, trace, (billingResult, productDetailsMap) -> {
+                if (productDetailsMap.isEmpty()) {
+                    response.put("responseCode", 1);
+                    response.put("responseMessage", "Could not find any product matching the given productIdentifiers");
+                } else {
+                    response.put("responseCode", 0);
+                    response.put("responseMessage", "Successfully prefetched product details");
+                }
+                response.put("data", new JSArray(productDetailsMap.keySet()));
+                resolve(call, response);
+            });
+        });
     }
 
     public void getLatestTransaction(String productIdentifier, PluginCall call) {
+        Tracer.Trace trace = startCall(call);
         JSObject response = new JSObject();
 
-        if (billingClientIsConnected == 1) {
-            QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder()
-                .setProductType(BillingClient.ProductType.SUBS)
-                .build();
+        whenConnected(call, trace, () -> {
+            long startedAt = Metrics.now();
+            purchaseStore.query((billingResult, purchases) -> {
+                trace.recordSpan("purchasesQuery", startedAt, billingResult.getResponseCode(), null);
+                Purchase purchase = purchases.getLatestForProduct(productIdentifier);
+                if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK && purchase != null) {
+                    JSObject data = new JSObject();
+                    try {
+                        data.put("transaction", purchaseJsonCache.get(purchase.getPurchaseToken(), purchase.getOriginalJson()));
+                        data.put("productIdentifier", purchase.getProducts().get(0));
+                        data.put("productType", purchases.getProductType(purchase));
+                        data.put("transactionId", purchase.getOrderId());
+                        data.put("purchaseToken", purchase.getPurchaseToken());
 
-            billingClient.queryPurchasesAsync(queryPurchasesParams, (billingResult, purchases) -> {
-                if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-                    for (Purchase purchase : purchases) {
-                        if (purchase.getProducts().contains(productIdentifier)) {
-                            JSObject data = new JSObject();
-                            try {
-                                data.put("transaction", new JSObject(purchase.getOriginalJson()));
-                                data.put("productIdentifier", purchase.getProducts().get(0));
-                                data.put("transactionId", purchase.getOrderId());
-                                data.put("purchaseToken", purchase.getPurchaseToken());
-
-                                response.put("responseCode", 0);
-                                response.put("responseMessage", "Successfully found transaction");
-                                response.put("data", data);
-                                call.resolve(response);
-                                return;
-                            } catch (Exception e) {
-                                Log.e("Transaction", "Error parsing purchase data: " + e.getMessage());
-                            }
-                        }
+                        response.put("responseCode", 0);
+                        response.put("responseMessage", "Successfully found transaction");
+                        response.put("data", data);
+                        resolve(call, response);
+                        return;
+                    } catch (Exception e) {
+                        Log.e("Transaction", "Error parsing purchase data: " + e.getMessage());
                     }
                 }
 
                 response.put("responseCode", 3);
                 response.put("responseMessage", "No transaction found");
-                call.resolve(response);
+                resolve(call, response);
             });
-        } else {
-            response.put("responseCode", billingClientIsConnected);
-            response.put("responseMessage", "BillingClient not connected");
-            call.resolve(response);
+        });
+    }
+
+    // Answers from the last known purchases without a Billing round trip. Only the very first call, before
+    // anything was loaded from Play, has to wait for a query
+    public void hasEntitlement(String productIdentifier, PluginCall call) {
+        Tracer.Trace trace = startCall(call);
+        PurchaseIndex index = purchaseStore.getIndex();
+        if (index != null) {
+            resolve(call, buildHasEntitlementResponse(index, productIdentifier));
+            return;
         }
+
+        whenConnected(call, trace, () -> {
+            long startedAt = Metrics.now();
+            purchaseStore.query((billingResult, purchases) -> {
+                trace.recordSpan("purchasesQuery", startedAt, billingResult.getResponseCode(), null);
+                resolve(call, buildHasEntitlementResponse(purchases, productIdentifier));
+            });
+        });
+    }
+
+    private static JSObject buildHasEntitlementResponse(PurchaseIndex index, String productIdentifier) {
+        Purchase purchase = index.getLatestForProduct(productIdentifier);
+        boolean hasEntitlement = purchase != null && purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED;
+
+        JSObject response = new JSObject();
+        response.put("responseCode", 0);
+        response.put(
+            "responseMessage",
+            hasEntitlement ? "User is entitled to the given productIdentifier" : "User is not entitled to the given productIdentifier"
+        );
+        response.put("data", new JSObject().put("productIdentifier", productIdentifier).put("hasEntitlement", hasEntitlement));
+        return response;
     }
 
     public void getCurrentEntitlements(PluginCall call) {
+        Tracer.Trace trace = startCall(call);
         JSObject response = new JSObject();
 
-        if (billingClientIsConnected == 1) {
-            QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder()
-                .setProductType(BillingClient.ProductType.SUBS)
-                .build();
+        whenConnected(call, trace, () -> {
+            refreshEntitlements(trace, null, (entitlements, error) -> {
+                if (error != null) {
+                    Log.e("Error", error.toString());
+                    response.put("responseCode", 2);
+                    response.put("responseMessage", error.toString());
+                } else if (entitlements.isEmpty()) {
+                    Log.i("No Purchases", "No active subscriptions found");
+                    response.put("responseCode", 1);
+                    response.put("responseMessage", "No entitlements were found");
+                } else {
+                    response.put("responseCode", 0);
+                    response.put("responseMessage", "Successfully found all entitlements across all product types");
+                    response.put("data", toJSArray(entitlements));
+                }
 
-            billingClient.queryPurchasesAsync(queryPurchasesParams, (billingResult, purchaseList) -> {
-                try {
-                    int amountOfPurchases = purchaseList.size();
-
-                    if (amountOfPurchases > 0) {
-                        ArrayList<JSObject> entitlements = new ArrayList<JSObject>();
-                        for (int i = 0; i < purchaseList.size(); i++) {
-                            Purchase currentPurchase = purchaseList.get(i);
-
-                            String orderId = currentPurchase.getOrderId();
-                            String expiryDate = this.getExpiryDateFromApi(orderId);
-
-                            String dateFormat = "dd-MM-yyyy hh:mm";
-                            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat, Locale.getDefault());
-                            Calendar calendar = Calendar.getInstance();
-                            calendar.setTimeInMillis(Long.parseLong((String.valueOf(currentPurchase.getPurchaseTime()))));
-
-                            entitlements.add(
-                                new JSObject()
-                                    .put("productIdentifier", currentPurchase.getProducts().get(0))
-                                    .put("expiryDate", expiryDate)
-                                    .put("originalStartDate", simpleDateFormat.format(calendar.getTime()))
-                                    .put("originalId", orderId)
-                                    .put("transactionId", orderId)
-                                    .put("purchaseToken", currentPurchase.getPurchaseToken())
-                            );
-                        }
+                resolve(call, response);
+            });
+        });
+    }
 
-                        response.put("responseCode", 0);
-                        response.put("responseMessage", "Successfully found all entitlements across all product types");
-                        response.put("data", entitlements);
-                    } else {
-                        Log.i("No Purchases", "No active subscriptions found");
-                        response.put("responseCode", 1);
-                        response.put("responseMessage", "No entitlements were found");
-                    }
+    // Streaming variant for large purchase sets, the entitlements are handed to pageSink in pages of at most pageSize
+    // while they are verified and the call itself only resolves with a summary once the last page went out
+    public void streamCurrentEntitlements(PluginCall call, int pageSize, EntitlementStream.Sink pageSink) {
+        Tracer.Trace trace = startCall(call);
+        JSObject response = new JSObject();
+        EntitlementStream stream = new EntitlementStream(call.getCallbackId(), pageSize, pageSink, streamScheduler);
 
-                    call.resolve(response);
-                } catch (Exception e) {
-                    Log.e("Error", e.toString());
+        whenConnected(call, trace, () -> {
+            refreshEntitlements(trace, stream, (entitlements, error) -> {
+                JSObject summary = stream.finish();
+                if (error != null) {
+                    Log.e("Error", error.toString());
                     response.put("responseCode", 2);
-                    response.put("responseMessage", e.toString());
+                    response.put("responseMessage", error.toString());
+                } else if (entitlements.isEmpty()) {
+                    Log.i("No Purchases", "No active subscriptions found");
+                    response.put("responseCode", 1);
+                    response.put("responseMessage", "No entitlements were found");
+                } else {
+                    response.put("responseCode", 0);
+                    response.put("responseMessage", "Successfully streamed all entitlements across all product types");
                 }
+                response.put("summary", summary);
 
-                call.resolve(response);
+                resolve(call, response);
             });
-        }
+        });
     }
 
-    public void purchaseProduct(String productIdentifier, String accountId, PluginCall call) {
+    // Answers from the entitlement store without waiting for Play or the verification endpoint, then revalidates in
+    // the background. If the revalidated entitlements differ, an ENTITLEMENTS-CHANGED event carries the new ones
+    public void getCachedEntitlements(PluginCall call) {
+        startCall(call);
+        List<EntitlementStore.Entry> entitlements = entitlementStore.get();
         JSObject response = new JSObject();
 
-        if (billingClientIsConnected == 1) {
-            QueryProductDetailsParams.Product productToFind = QueryProductDetailsParams.Product.newBuilder()
-                .setProductId(productIdentifier)
-                .setProductType(BillingClient.ProductType.SUBS)
-                .build();
+        if (entitlements == null) {
+            response.put("responseCode", 1);
+            response.put("responseMessage", "No cached entitlements were found");
+        } else {
+            response.put("responseCode", 0);
+            response.put("responseMessage", "Successfully loaded cached entitlements");
+            response.put("data", toJSArray(entitlements));
+            response.put("cachedAt", entitlementStore.getSavedAt());
+        }
+
+        resolve(call, response);
+        revalidateEntitlements(false);
+    }
 
-            QueryProductDetailsParams queryProductDetailsParams = QueryProductDetailsParams.newBuilder()
-                .setProductList(List.of(productToFind))
-                .build();
+    // force is for changed purchases: it skips the freshness check, and a revalidation which is already running may
+    // have queried Play before the change, so it is run once more afterwards
+    private void revalidateEntitlements(boolean force) {
+        synchronized (revalidationLock) {
+            if (revalidating) {
+                revalidateAgain |= force;
+                return;
+            }
+            if (!force && System.currentTimeMillis() - lastStoredAt < config.purchasesSnapshotTtlMs) {
+                return;
+            }
+            revalidating = true;
+        }
 
-            billingClient.queryProductDetailsAsync(queryProductDetailsParams, (billingResult1, productDetailsList) -> {
-                try {
-                    ProductDetails productDetails = productDetailsList.get(0);
-                    BillingFlowParams.Builder builder = BillingFlowParams.newBuilder()
-                        .setProductDetailsParamsList(
-                            List.of(
-                                BillingFlowParams.ProductDetailsParams.newBuilder()
-                                    .setProductDetails(productDetails)
-                                    .setOfferToken(
-                                        Objects.requireNonNull(productDetails.getSubscriptionOfferDetails()).get(0).getOfferToken()
-                                    )
-                                    .build()
-                            )
-                        );
-                    if (accountId != null) {
-                        builder.setObfuscatedAccountId(accountId);
+        startRevalidation();
+    }
+
+    // Not part of any plugin call, so it is traced on its own
+    private void startRevalidation() {
+        Tracer.Trace trace = tracer.start("revalidateEntitlements");
+        connection.execute(
+            new BillingConnection.Task() {
+                @Override
+                public void run() {
+                    refreshEntitlements(trace, null, (entitlements, error) -> {
+                        tracer.finish(trace, error != null ? 2 : 0);
+                        revalidationFinished();
+                    });
+                }
+
+                @Override
+                public void fail(int responseCode, String responseMessage) {
+                    Log.w("ENTITLEMENT-STORE", "[" + trace.traceId + "] Skipping revalidation: " + responseMessage);
+                    tracer.finish(trace, responseCode);
+                    revalidationFinished();
+                }
+            }
+        );
+    }
+
+    private void revalidationFinished() {
+        synchronized (revalidationLock) {
+            revalidating = revalidateAgain;
+            revalidateAgain = false;
+            if (!revalidating) {
+                return;
+            }
+        }
+
+        startRevalidation();
+    }
+
+    interface EntitlementsCallback {
+        // Exactly one of entitlements and error is set
+        void onEntitlements(List<EntitlementStore.Entry> entitlements, Exception error);
+    }
+
+    // Loads the purchases, verifies all subscriptions at once and stores the result. Must only be called while connected.
+    // With a stream, every entitlement is also added to it as soon as its own verification is done
+    private void refreshEntitlements(Tracer.Trace trace, EntitlementStream stream, EntitlementsCallback callback) {
+        long queryStartedAt = Metrics.now();
+        purchaseStore.query((billingResult, purchases) -> {
+            trace.recordSpan("purchasesQuery", queryStartedAt, billingResult.getResponseCode(), null);
+            // A failed query says nothing about the user's entitlements, it must not wipe the stored ones
+            boolean store = billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK;
+            List<Purchase> purchaseList = purchases.getPurchases();
+
+            if (purchaseList.isEmpty()) {
+                List<EntitlementStore.Entry> none = new ArrayList<>();
+                if (store) {
+                    storeEntitlements(none);
+                }
+                callback.onEntitlements(none, null);
+                return;
+            }
+
+            // Verify all subscriptions at once rather than one after another, the callback fires as soon as the
+            // slowest verification is done or the configured timeout has passed. One-time products don't expire,
+            // and purchases without an order ID (pending ones) can't be verified, those are streamed right away
+            ArrayList<String> orderIds = new ArrayList<>();
+            for (Purchase purchase : purchaseList) {
+                if (needsVerification(purchases, purchase)) {
+                    orderIds.add(purchase.getOrderId());
+                } else if (stream != null) {
+                    stream.add(toEntry(purchases, purchase, null, false));
+                }
+            }
+
+            ExpiryVerifier.ProgressListener progressListener = null;
+            if (stream != null) {
+                progressListener = (orderId, expiryDate) -> {
+                    Purchase purchase = purchases.getByOrderId(orderId);
+                    if (purchase != null) {
+                        stream.add(toEntry(purchases, purchase, expiryDate, false));
                     }
-                    BillingFlowParams billingFlowParams = builder.build();
-                    BillingResult result = billingClient.launchBillingFlow(this.activity, billingFlowParams);
+                };
+            }
 
-                    Log.i("RESULT", result.toString());
-                    response.put("responseCode", 0);
-                    response.put("responseMessage", "Successfully opened native popover");
+            long verifyStartedAt = Metrics.now();
+            expiryVerifier.verifyAll(orderIds, config.verificationTimeoutMs, trace, progressListener, (expiryDates, partial) -> {
+                String detail = orderIds.size() + " transactions, " + partial.size() + " partial";
+                trace.recordSpan("verifyAll", verifyStartedAt, partial.isEmpty() ? 0 : 2, detail);
+                List<EntitlementStore.Entry> entitlements;
+                try {
+                    entitlements = buildEntitlements(purchases, expiryDates, partial);
+                    if (stream != null) {
+                        // Partial entitlements never reported progress
+                        for (EntitlementStore.Entry entitlement : entitlements) {
+                            if (entitlement.partial) {
+                                stream.add(entitlement);
+                            }
+                        }
+                    }
                 } catch (Exception e) {
-                    Logger.error(e.getMessage());
-                    response.put("responseCode", 1);
-                    response.put("responseMessage", "Failed to open native popover");
+                    callback.onEntitlements(null, e);
+                    return;
                 }
 
-                call.resolve(response);
+                if (store) {
+                    storeEntitlements(entitlements);
+                }
+                callback.onEntitlements(entitlements, null);
             });
-        }
+        });
     }
 
-    private String getExpiryDateFromApi(String transactionId) {
-        try {
-            // Compile request to verify purchase token
-            URL obj = new URL(this.apiEndpoint);
-            HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-            con.setRequestMethod("POST");
-            con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-            con.setRequestProperty("Authorization", "Bearer " + this.jwt);
-            con.setDoOutput(true);
-
-            // JSON-Body erzeugen
-            String body = "{\"transaction_id\": \"" + transactionId + "\"}";
-
-            try (OutputStream os = con.getOutputStream()) {
-                byte[] input = body.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+    private static boolean needsVerification(PurchaseIndex purchases, Purchase purchase) {
+        return purchase.getOrderId() != null && BillingClient.ProductType.SUBS.equals(purchases.getProductType(purchase));
+    }
+
+    private void storeEntitlements(List<EntitlementStore.Entry> entitlements) {
+        // After a restart, the stored snapshot is what the first refresh is compared with
+        if (!entitlementDiff.hasBaseline()) {
+            entitlementDiff.seed(entitlementStore.get(), entitlementStore.getSavedAt());
+        }
+        // Diffed even when the snapshot itself is unchanged, an expiry date may have passed since the last one
+        JSObject diff = entitlementDiff.update(entitlements);
+        lastStoredAt = System.currentTimeMillis();
+        entitlementRefresher.onEntitlements(entitlements);
+
+        if (entitlementStore.update(entitlements)) {
+            EntitlementsListener listener = entitlementsListener;
+            if (listener != null) {
+                listener.onEntitlementsChanged(new JSObject().put("data", toJSArray(entitlements)));
             }
+        }
 
-            // Try to receive response from server
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8))) {
-                StringBuilder googleResponse = new StringBuilder();
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    googleResponse.append(responseLine.trim());
-                    Log.i("Response Line", responseLine);
-                }
+        EntitlementsDiffListener diffListener = entitlementsDiffListener;
+        if (diff != null && diffListener != null) {
+            diffListener.onEntitlementsDiff(diff);
+        }
+    }
+
+    private static JSArray toJSArray(List<EntitlementStore.Entry> entitlements) {
+        JSArray data = new JSArray();
+        for (EntitlementStore.Entry entitlement : entitlements) {
+            data.put(entitlement.toJSObject());
+        }
+        return data;
+    }
 
-                // If the response was successful, extract expiryDate and put it in our response data property
-                if (con.getResponseCode() == 200) {
-                    JSObject postResponseJSON = new JSObject(googleResponse.toString());
+    private List<EntitlementStore.Entry> buildEntitlements(PurchaseIndex purchases, Map<String, String> expiryDates, Set<String> partial) {
+        List<Purchase> purchaseList = purchases.getPurchases();
+        List<EntitlementStore.Entry> entitlements = new ArrayList<>();
+        for (int i = 0; i < purchaseList.size(); i++) {
+            Purchase currentPurchase = purchaseList.get(i);
 
-                    String dateFormat = "yyyy-MM-dd HH:mm:ss";
-                    SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat, Locale.getDefault());
+            String orderId = currentPurchase.getOrderId();
+            entitlements.add(toEntry(purchases, currentPurchase, expiryDates.get(orderId), partial.contains(orderId)));
+        }
 
-                    // Direkt den gewünschten Schlüssel auslesen
-                    String expiryString = postResponseJSON.getString("expiryDate");
-                    Date date = simpleDateFormat.parse(expiryString);
+        return entitlements;
+    }
 
-                    Calendar calendar = Calendar.getInstance();
-                    calendar.setTime(date);
+    private static EntitlementStore.Entry toEntry(PurchaseIndex purchases, Purchase purchase, String expiryDate, boolean partial) {
+        return new EntitlementStore.Entry(
+            purchase.getProducts().get(0),
+            purchases.getProductType(purchase),
+            expiryDate,
+            DateFormats.formatStartDate(purchase.getPurchaseTime()),
+            purchase.getOrderId(),
+            purchase.getPurchaseToken(),
+            partial
+        );
+    }
 
-                    Log.i("EXPIRY", simpleDateFormat.format(calendar.getTime()));
-                    return simpleDateFormat.format(calendar.getTime());
-                } else {
-                    return null;
+    // basePlanId, offerId and offerTag are optional and select the subscription offer to buy (see OfferIndex.find),
+    // without them the product's first offer is used
+    public void purchaseProduct(
+        String productIdentifier,
+        String accountId,
+        String basePlanId,
+        String offerId,
+        String offerTag,
+        PluginCall call
+    ) {
+        Tracer.Trace trace = startCall(call);
+        JSObject response = new JSObject();
+
+        whenConnected(call, trace, () -> {
+            // The paywall normally fetched these details already, so the billing flow can launch straight from the cache
+            loadProductDetails(List.of(productIdentifier), null, trace, (billingResult1, productDetailsMap) -> {
+                try {
+                    ProductDetails productDetails = Objects.requireNonNull(productDetailsMap.get(productIdentifier));
+                    // One-time products have no offers to pick from
+                    String offerToken = null;
+                    if (!BillingClient.ProductType.INAPP.equals(productDetails.getProductType())) {
+                        OfferIndex.Offer offer = productDetailsCache.getOffers(productDetails).find(basePlanId, offerId, offerTag);
+                        if (offer == null) {
+                            response.put("responseCode", 2);
+                            response.put("responseMessage", "Could not find an offer matching the given offer selection");
+                            resolve(call, response);
+                            return;
+                        }
+                        offerToken = offer.offerToken;
+                    }
+
+                    // With the details cached this runs on the plugin thread, but Play wants the flow launched from the UI thread
+                    String selectedOfferToken = offerToken;
+                    runOnUiThread(() -> launchBillingFlow(call, trace, productDetails, selectedOfferToken, accountId));
+                } catch (Exception e) {
+                    Logger.error(e.getMessage());
+                    response.put("responseCode", 1);
+                    response.put("responseMessage", "Failed to open native popover");
+                    resolve(call, response);
                 }
-            } catch (Exception e) {
-                Logger.error(e.getMessage());
-            }
+            });
+        });
+    }
+
+    // Must run on the UI thread
+    private void launchBillingFlow(
+        PluginCall call,
+        Tracer.Trace trace,
+        ProductDetails productDetails,
+        String offerToken,
+        String accountId
+    ) {
+        JSObject response = new JSObject();
+
+        try {
+            long launchStartedAt = Metrics.now();
+            BillingResult result = billing.launchBillingFlow(this.activity, productDetails, offerToken, accountId);
+            trace.recordSpan("launchBillingFlow", launchStartedAt, result.getResponseCode(), null);
+
+            Log.i("RESULT", result.toString());
+            response.put("responseCode", 0);
+            response.put("responseMessage", "Successfully opened native popover");
         } catch (Exception e) {
             Logger.error(e.getMessage());
+            response.put("responseCode", 1);
+            response.put("responseMessage", "Failed to open native popover");
         }
 
-        // If the method manages to each this far before already returning, just return null
-        // because something went wrong
-        return null;
+        resolve(call, response);
+    }
+
+    // Without an activity (the JVM tests) there is no UI thread to post to, the action runs right away
+    private void runOnUiThread(Runnable action) {
+        if (activity != null) {
+            activity.runOnUiThread(action);
+        } else {
+            action.run();
+        }
     }
 }
@@ -0,0 +1,265 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.PluginConfig;
+
+// Values read from the "Subscriptions" block of the app's capacitor.config.json,
+// anything that is missing falls back to the defaults below
+public class SubscriptionsConfig {
+
+    // How long getCurrentEntitlements waits for the slowest expiry verification before resolving anyway
+    public static final int DEFAULT_VERIFICATION_TIMEOUT = 10000;
+    // Upper bound for the amount of expiry verifications running at the same time
+    public static final int DEFAULT_VERIFICATION_CONCURRENCY = 4;
+    // Socket level timeouts of a single verification request
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 5000;
+    // Hard limit for a single verification request from opening the connection to the last byte of the body
+    public static final int DEFAULT_REQUEST_TIMEOUT = 8000;
+    // Verified expiry dates are reused for at most this long, even if the expiry date itself is further away
+    public static final int DEFAULT_EXPIRY_CACHE_TTL = 24 * 60 * 60 * 1000;
+    public static final int DEFAULT_EXPIRY_CACHE_SIZE = 64;
+    // How long product details (prices, titles, offers) fetched from Play are reused
+    public static final int DEFAULT_PRODUCT_CACHE_TTL = 30 * 60 * 1000;
+    // How long a plugin call waits for the BillingClient to (re)connect before it is answered with an error
+    public static final int DEFAULT_BILLING_QUEUE_TIMEOUT = 10000;
+    // Repeated purchase lookups within this window are answered from the last queryPurchasesAsync result
+    public static final int DEFAULT_PURCHASES_SNAPSHOT_TTL = 5000;
+    // Purchase events arriving within this window are sent to the WebView as one message
+    public static final int DEFAULT_PURCHASE_EVENT_WINDOW = 50;
+
+    // When the connection to Play is set up: right in load(), once the main thread is idle after startup,
+    // or only when the first call needs it
+    public static final String STARTUP_EAGER = "eager";
+    public static final String STARTUP_IDLE = "idle";
+    public static final String STARTUP_LAZY = "lazy";
+    public static final String DEFAULT_STARTUP_MODE = STARTUP_IDLE;
+    // Interval of the periodic METRICS event, 0 turns it off
+    public static final int DEFAULT_METRICS_INTERVAL = 0;
+    // The verification circuit breaker opens once this share (in percent) of the recent requests failed or took
+    // longer than the slow call limit, and stays open for the cooldown. A threshold of 0 turns it off
+    public static final int DEFAULT_BREAKER_THRESHOLD = 50;
+    public static final int DEFAULT_SLOW_CALL = 3000;
+    public static final int DEFAULT_BREAKER_COOLDOWN = 30000;
+    // Whether a second verification request is sent when the first one takes longer than the usual p95
+    public static final boolean DEFAULT_HEDGING = false;
+    // Upper bound for the time between two background entitlement refreshes, 0 turns them off
+    public static final int DEFAULT_ENTITLEMENT_REFRESH_INTERVAL = 0;
+    // The app's base64 encoded license key from the Play Console. When set, purchase signatures are checked on the device
+    public static final String DEFAULT_PLAY_PUBLIC_KEY = null;
+    // How many finished traces getTraces() returns, 0 keeps none
+    public static final int DEFAULT_TRACE_BUFFER_SIZE = 50;
+
+    final long verificationTimeoutMs;
+    final int verificationConcurrency;
+    final int connectTimeoutMs;
+    final int readTimeoutMs;
+    final long requestTimeoutMs;
+    final long expiryCacheTtlMs;
+    final int expiryCacheSize;
+    final long productCacheTtlMs;
+    final long billingQueueTimeoutMs;
+    final long purchasesSnapshotTtlMs;
+    final long purchaseEventWindowMs;
+    final String startupMode;
+    final long metricsIntervalMs;
+    final int breakerThresholdPercent;
+    final long slowCallMs;
+    final long breakerCooldownMs;
+    final boolean hedging;
+    final long entitlementRefreshIntervalMs;
+    final String playPublicKey;
+    final int traceBufferSize;
+
+    private SubscriptionsConfig(Builder builder) {
+        this.verificationTimeoutMs = builder.verificationTimeoutMs;
+        this.verificationConcurrency = Math.max(1, builder.verificationConcurrency);
+        this.connectTimeoutMs = builder.connectTimeoutMs;
+        this.readTimeoutMs = builder.readTimeoutMs;
+        this.requestTimeoutMs = builder.requestTimeoutMs;
+        this.expiryCacheTtlMs = builder.expiryCacheTtlMs;
+        this.expiryCacheSize = Math.max(1, builder.expiryCacheSize);
+        this.productCacheTtlMs = builder.productCacheTtlMs;
+        this.billingQueueTimeoutMs = builder.billingQueueTimeoutMs;
+        this.purchasesSnapshotTtlMs = builder.purchasesSnapshotTtlMs;
+        this.purchaseEventWindowMs = builder.purchaseEventWindowMs;
+        this.startupMode = STARTUP_EAGER.equals(builder.startupMode) || STARTUP_LAZY.equals(builder.startupMode)
+            ? builder.startupMode
+            : STARTUP_IDLE;
+        this.metricsIntervalMs = Math.max(0, builder.metricsIntervalMs);
+        this.breakerThresholdPercent = Math.max(0, Math.min(100, builder.breakerThresholdPercent));
+        this.slowCallMs = builder.slowCallMs;
+        this.breakerCooldownMs = builder.breakerCooldownMs;
+        this.hedging = builder.hedging;
+        this.entitlementRefreshIntervalMs = Math.max(0, builder.entitlementRefreshIntervalMs);
+        this.playPublicKey = builder.playPublicKey;
+        this.traceBufferSize = Math.max(0, builder.traceBufferSize);
+    }
+
+    // Every value starts out as its default, so tests and from() only set what they need by name
+    static Builder builder() {
+        return new Builder();
+    }
+
+    public static SubscriptionsConfig defaults() {
+        return builder().build();
+    }
+
+    public static SubscriptionsConfig from(PluginConfig config) {
+        if (config == null) {
+            return defaults();
+        }
+
+        return builder()
+            .verificationTimeoutMs(config.getInt("verificationTimeout", DEFAULT_VERIFICATION_TIMEOUT))
+            .verificationConcurrency(config.getInt("verificationConcurrency", DEFAULT_VERIFICATION_CONCURRENCY))
+            .connectTimeoutMs(config.getInt("verificationConnectTimeout", DEFAULT_CONNECT_TIMEOUT))
+            .readTimeoutMs(config.getInt("verificationReadTimeout", DEFAULT_READ_TIMEOUT))
+            .requestTimeoutMs(config.getInt("verificationRequestTimeout", DEFAULT_REQUEST_TIMEOUT))
+            .expiryCacheTtlMs(config.getInt("expiryCacheTtl", DEFAULT_EXPIRY_CACHE_TTL))
+            .expiryCacheSize(config.getInt("expiryCacheSize", DEFAULT_EXPIRY_CACHE_SIZE))
+            .productCacheTtlMs(config.getInt("productCacheTtl", DEFAULT_PRODUCT_CACHE_TTL))
+            .billingQueueTimeoutMs(config.getInt("billingQueueTimeout", DEFAULT_BILLING_QUEUE_TIMEOUT))
+            .purchasesSnapshotTtlMs(config.getInt("purchasesSnapshotTtl", DEFAULT_PURCHASES_SNAPSHOT_TTL))
+            .purchaseEventWindowMs(config.getInt("purchaseEventWindow", DEFAULT_PURCHASE_EVENT_WINDOW))
+            .startupMode(config.getString("startupMode", DEFAULT_STARTUP_MODE))
+            .metricsIntervalMs(config.getInt("metricsInterval", DEFAULT_METRICS_INTERVAL))
+            .breakerThresholdPercent(config.getInt("verificationBreakerThreshold", DEFAULT_BREAKER_THRESHOLD))
+            .slowCallMs(config.getInt("verificationSlowCall", DEFAULT_SLOW_CALL))
+            .breakerCooldownMs(config.getInt("verificationBreakerCooldown", DEFAULT_BREAKER_COOLDOWN))
+            .hedging(config.getBoolean("verificationHedging", DEFAULT_HEDGING))
+            .entitlementRefreshIntervalMs(config.getInt("entitlementRefreshInterval", DEFAULT_ENTITLEMENT_REFRESH_INTERVAL))
+            .playPublicKey(config.getString("playPublicKey", DEFAULT_PLAY_PUBLIC_KEY))
+            .traceBufferSize(config.getInt("traceBufferSize", DEFAULT_TRACE_BUFFER_SIZE))
+            .build();
+    }
+
+    static final class Builder {
+
+        private long verificationTimeoutMs = DEFAULT_VERIFICATION_TIMEOUT;
+        private int verificationConcurrency = DEFAULT_VERIFICATION_CONCURRENCY;
+        private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT;
+        private int readTimeoutMs = DEFAULT_READ_TIMEOUT;
+        private long requestTimeoutMs = DEFAULT_REQUEST_TIMEOUT;
+        private long expiryCacheTtlMs = DEFAULT_EXPIRY_CACHE_TTL;
+        private int expiryCacheSize = DEFAULT_EXPIRY_CACHE_SIZE;
+        private long productCacheTtlMs = DEFAULT_PRODUCT_CACHE_TTL;
+        private long billingQueueTimeoutMs = DEFAULT_BILLING_QUEUE_TIMEOUT;
+        private long purchasesSnapshotTtlMs = DEFAULT_PURCHASES_SNAPSHOT_TTL;
+        private long purchaseEventWindowMs = DEFAULT_PURCHASE_EVENT_WINDOW;
+        private String startupMode = DEFAULT_STARTUP_MODE;
+        private long metricsIntervalMs = DEFAULT_METRICS_INTERVAL;
+        private int breakerThresholdPercent = DEFAULT_BREAKER_THRESHOLD;
+        private long slowCallMs = DEFAULT_SLOW_CALL;
+        private long breakerCooldownMs = DEFAULT_BREAKER_COOLDOWN;
+        private boolean hedging = DEFAULT_HEDGING;
+        private long entitlementRefreshIntervalMs = DEFAULT_ENTITLEMENT_REFRESH_INTERVAL;
+        private String playPublicKey = DEFAULT_PLAY_PUBLIC_KEY;
+        private int traceBufferSize = DEFAULT_TRACE_BUFFER_SIZE;
+
+        private Builder() {}
+
+        Builder verificationTimeoutMs(long verificationTimeoutMs) {
+            this.verificationTimeoutMs = verificationTimeoutMs;
+            return this;
+        }
+
+        Builder verificationConcurrency(int verificationConcurrency) {
+            this.verificationConcurrency = verificationConcurrency;
+            return this;
+        }
+
+        Builder connectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        Builder readTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        Builder requestTimeoutMs(long requestTimeoutMs) {
+            this.requestTimeoutMs = requestTimeoutMs;
+            return this;
+        }
+
+        Builder expiryCacheTtlMs(long expiryCacheTtlMs) {
+            this.expiryCacheTtlMs = expiryCacheTtlMs;
+            return this;
+        }
+
+        Builder expiryCacheSize(int expiryCacheSize) {
+            this.expiryCacheSize = expiryCacheSize;
+            return this;
+        }
+
+        Builder productCacheTtlMs(long productCacheTtlMs) {
+            this.productCacheTtlMs = productCacheTtlMs;
+            return this;
+        }
+
+        Builder billingQueueTimeoutMs(long billingQueueTimeoutMs) {
+            this.billingQueueTimeoutMs = billingQueueTimeoutMs;
+            return this;
+        }
+
+        Builder purchasesSnapshotTtlMs(long purchasesSnapshotTtlMs) {
+            this.purchasesSnapshotTtlMs = purchasesSnapshotTtlMs;
+            return this;
+        }
+
+        Builder purchaseEventWindowMs(long purchaseEventWindowMs) {
+            this.purchaseEventWindowMs = purchaseEventWindowMs;
+            return this;
+        }
+
+        Builder startupMode(String startupMode) {
+            this.startupMode = startupMode;
+            return this;
+        }
+
+        Builder metricsIntervalMs(long metricsIntervalMs) {
+            this.metricsIntervalMs = metricsIntervalMs;
+            return this;
+        }
+
+        Builder breakerThresholdPercent(int breakerThresholdPercent) {
+            this.breakerThresholdPercent = breakerThresholdPercent;
+            return this;
+        }
+
+        Builder slowCallMs(long slowCallMs) {
+            this.slowCallMs = slowCallMs;
+            return this;
+        }
+
+        Builder breakerCooldownMs(long breakerCooldownMs) {
+            this.breakerCooldownMs = breakerCooldownMs;
+            return this;
+        }
+
+        Builder hedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        Builder entitlementRefreshIntervalMs(long entitlementRefreshIntervalMs) {
+            this.entitlementRefreshIntervalMs = entitlementRefreshIntervalMs;
+            return this;
+        }
+
+        Builder playPublicKey(String playPublicKey) {
+            this.playPublicKey = playPublicKey;
+            return this;
+        }
+
+        Builder traceBufferSize(int traceBufferSize) {
+            this.traceBufferSize = traceBufferSize;
+            return this;
+        }
+
+        SubscriptionsConfig build() {
+            return new SubscriptionsConfig(this);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.capacitor_subscriptions.capacitor;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.Uri;
 import android.util.Log;
 // Google Play Billing imports
-import com.android.billingclient.api.AcknowledgePurchaseParams;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.Purchase;
@@ -12,23 +14,45 @@ import com.android.billingclient.api.Purchase.PurchaseState;
 import com.android.billingclient.api.PurchasesUpdatedListener;
 import com.android.billingclient.api.QueryPurchasesParams;
 // Capacitor imports
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import java.io.File;
 import java.util.Collections;
 // Optional imports für bessere Fehlerbehandlung
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
 
 @CapacitorPlugin(name = "Subscriptions")
 public class SubscriptionsPlugin extends Plugin {
 
+    // Entitlements per ENTITLEMENTS-PAGE event when a streaming getCurrentEntitlements call doesn't pass a pageSize
+    private static final int DEFAULT_ENTITLEMENTS_PAGE_SIZE = 20;
+
     private Subscriptions implementation;
 
     private BillingClient billingClient;
 
-    private Boolean acknowledgePurchases = true;
+    private final PurchaseFlows purchaseFlows = new PurchaseFlows();
+
+    private PurchaseEventDispatcher eventDispatcher;
+
+    // Emits METRICS events, null unless metricsInterval is set
+    private ScheduledExecutorService metricsExecutor;
+
+    // Date formatting caches the default time zone, this tells it when the user switches to another one
+    private final BroadcastReceiver timeZoneReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            DateFormats.onTimeZoneChanged(intent.getStringExtra(Intent.EXTRA_TIMEZONE));
+        }
+    };
 
     public SubscriptionsPlugin() {}
 
@@ -36,59 +60,90 @@ public class SubscriptionsPlugin extends Plugin {
     // method on the billingClient, with the purchase token otherwise Google will automatically cancel the subscription
     // shortly after the purchase
     private final PurchasesUpdatedListener purchasesUpdatedListener = (billingResult, purchases) -> {
-        JSObject response = new JSObject();
-
         if (purchases != null && !purchases.isEmpty()) {
+            implementation.onPurchasesUpdated(purchases);
+
             for (Purchase currentPurchase : purchases) {
+                // A purchase which doesn't carry Play's signature is neither acknowledged nor reported as successful
+                if (!implementation.verifySignature(currentPurchase)) {
+                    Log.w("PURCHASE", "Ignoring purchase with an invalid signature: " + currentPurchase.getOrderId());
+                    eventDispatcher.dispatch(
+                        PurchaseEventDispatcher.PurchaseEvent.failed(
+                            currentPurchase,
+                            BillingResult.newBuilder()
+                                .setResponseCode(BillingClient.BillingResponseCode.ERROR)
+                                .setDebugMessage("Invalid purchase signature")
+                                .build()
+                        )
+                    );
+                    continue;
+                }
+
+                boolean acknowledgePurchase = purchaseFlows.shouldAcknowledge(currentPurchase);
+
                 if (
-                    this.acknowledgePurchases &&
+                    acknowledgePurchase &&
                     !currentPurchase.isAcknowledged() &&
                     billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK &&
                     currentPurchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED
                 ) {
-                    AcknowledgePurchaseParams acknowledgePurchaseParams = AcknowledgePurchaseParams.newBuilder()
-                        .setPurchaseToken(currentPurchase.getPurchaseToken())
-                        .build();
-
-                    billingClient.acknowledgePurchase(acknowledgePurchaseParams, billingResult1 -> {
+                    implementation.acknowledgePurchase(currentPurchase, (purchaseToken, billingResult1) -> {
                         Log.i("Purchase ack", currentPurchase.getOriginalJson());
 
-                        response.put("successful", true);
-                        try {
-                            response.put("purchase", new JSObject(currentPurchase.getOriginalJson()));
-                        } catch (Exception e) {
-                            Log.e("Purchase Response", "Error parsing purchase data: " + e.getMessage());
-                            response.put("purchase", currentPurchase.getPurchaseToken());
+                        if (billingResult1.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                            eventDispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.succeeded(currentPurchase));
+                        } else {
+                            eventDispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.failed(currentPurchase, billingResult1));
                         }
-
-                        notifyListeners("ANDROID-PURCHASE-RESPONSE", response);
                     });
                 } else if (
-                    !this.acknowledgePurchases &&
+                    !acknowledgePurchase &&
                     billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK &&
                     currentPurchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED
                 ) {
-                    response.put("successful", true);
-                    try {
-                        response.put("purchase", new JSObject(currentPurchase.getOriginalJson()));
-                    } catch (Exception e) {
-                        response.put("purchase", currentPurchase.getPurchaseToken());
-                    }
-                    notifyListeners("ANDROID-PURCHASE-RESPONSE", response);
+                    eventDispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.succeeded(currentPurchase));
                 }
             }
         } else {
-            response.put("successful", false);
-            response.put("errorCode", billingResult.getResponseCode());
-            response.put("debugMessage", billingResult.getDebugMessage());
-            notifyListeners("ANDROID-PURCHASE-RESPONSE", response);
+            eventDispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.failed(null, billingResult));
         }
     };
 
     @Override
     public void load() {
+        SubscriptionsConfig config = SubscriptionsConfig.from(getConfig());
+        StartupTimings startupTimings = new StartupTimings(config.startupMode);
         this.billingClient = BillingClient.newBuilder(getContext()).setListener(purchasesUpdatedListener).enablePendingPurchases().build();
-        implementation = new Subscriptions(this, billingClient);
+        implementation = new Subscriptions(
+            getActivity(),
+            new File(getContext().getFilesDir(), "capacitor-subscriptions"),
+            new PlayBillingGateway(billingClient),
+            VerificationClient.STREAMING_PARSER,
+            config,
+            startupTimings
+        );
+        // Play delivers purchase updates on the main thread, which is busy running load() - the dispatcher is always
+        // in place before the first one arrives
+        this.eventDispatcher = new PurchaseEventDispatcher(
+            message -> notifyListeners("ANDROID-PURCHASE-RESPONSE", message),
+            config.purchaseEventWindowMs,
+            implementation.getPurchaseJsonCache()
+        );
+        implementation.setEntitlementsListener(event -> notifyListeners("ENTITLEMENTS-CHANGED", event));
+        implementation.setVerificationStatusListener(status -> notifyListeners("VERIFICATION-STATUS", status));
+        implementation.setEntitlementsDiffListener(diff -> notifyListeners("ENTITLEMENTS-DIFF", diff));
+        getContext().registerReceiver(timeZoneReceiver, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        startupTimings.markLoadFinished();
+
+        if (config.metricsIntervalMs > 0) {
+            metricsExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapSubscriptions-metrics"));
+            metricsExecutor.scheduleAtFixedRate(
+                () -> notifyListeners("METRICS", implementation.getMetrics()),
+                config.metricsIntervalMs,
+                config.metricsIntervalMs,
+                TimeUnit.MILLISECONDS
+            );
+        }
     }
 
     @PluginMethod
@@ -106,6 +161,31 @@ public class SubscriptionsPlugin extends Plugin {
         }
     }
 
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        if (implementation != null) {
+            implementation.onResume();
+        }
+    }
+
+    @Override
+    protected void handleOnPause() {
+        super.handleOnPause();
+        if (implementation != null) {
+            implementation.onPause();
+        }
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        getContext().unregisterReceiver(timeZoneReceiver);
+        if (metricsExecutor != null) {
+            metricsExecutor.shutdownNow();
+        }
+        super.handleOnDestroy();
+    }
+
     @PluginMethod
     public void echo(PluginCall call) {
         String value = call.getString("value");
@@ -119,11 +199,69 @@ public class SubscriptionsPlugin extends Plugin {
     public void getProductDetails(PluginCall call) {
         String productIdentifier = call.getString("productIdentifier");
 
+        String productType = call.getString("productType");
+
         if (productIdentifier == null) {
             call.reject("Must provide a productID");
+            return;
+        }
+        if (!isValidProductType(productType)) {
+            call.reject("productType must be either \"subs\" or \"inapp\"");
+            return;
         }
 
-        implementation.getProductDetails(productIdentifier, call);
+        implementation.getProductDetails(productIdentifier, productType, call);
+    }
+
+    @PluginMethod
+    public void getProductsDetails(PluginCall call) {
+        JSArray productIdentifiers = call.getArray("productIdentifiers");
+        String productType = call.getString("productType");
+
+        if (productIdentifiers == null || productIdentifiers.length() == 0) {
+            call.reject("Must provide at least one productID");
+            return;
+        }
+        if (!isValidProductType(productType)) {
+            call.reject("productType must be either \"subs\" or \"inapp\"");
+            return;
+        }
+
+        try {
+            implementation.getProductsDetails(productIdentifiers.<String>toList(), productType, call);
+        } catch (JSONException e) {
+            call.reject("productIdentifiers must be a list of strings");
+        }
+    }
+
+    @PluginMethod
+    public void prefetchProducts(PluginCall call) {
+        JSArray productIdentifiers = call.getArray("productIdentifiers");
+        String productType = call.getString("productType");
+
+        if (productIdentifiers == null || productIdentifiers.length() == 0) {
+            call.reject("Must provide at least one productID");
+            return;
+        }
+        if (!isValidProductType(productType)) {
+            call.reject("productType must be either \"subs\" or \"inapp\"");
+            return;
+        }
+
+        try {
+            implementation.prefetchProducts(productIdentifiers.<String>toList(), productType, call);
+        } catch (JSONException e) {
+            call.reject("productIdentifiers must be a list of strings");
+        }
+    }
+
+    // Product lookups default to both product types, productType narrows them down to one
+    private static boolean isValidProductType(String productType) {
+        return (
+            productType == null ||
+            BillingClient.ProductType.SUBS.equals(productType) ||
+            BillingClient.ProductType.INAPP.equals(productType)
+        );
     }
 
     @PluginMethod
@@ -131,15 +269,21 @@ public class SubscriptionsPlugin extends Plugin {
         String productIdentifier = call.getString("productIdentifier");
         String accountId = call.getString("accountId");
 
-        this.acknowledgePurchases = call.getBoolean("acknowledgePurchases") != null
-            ? call.getBoolean("acknowledgePurchases")
-            : Boolean.TRUE;
-
         if (productIdentifier == null) {
             call.reject("Must provide a productID");
+            return;
         }
 
-        implementation.purchaseProduct(productIdentifier, accountId, call);
+        purchaseFlows.start(productIdentifier, accountId, call.getBoolean("acknowledgePurchases", Boolean.TRUE));
+
+        implementation.purchaseProduct(
+            productIdentifier,
+            accountId,
+            call.getString("basePlanId"),
+            call.getString("offerId"),
+            call.getString("offerTag"),
+            call
+        );
     }
 
     @PluginMethod
@@ -153,11 +297,64 @@ public class SubscriptionsPlugin extends Plugin {
         implementation.getLatestTransaction(productIdentifier, call);
     }
 
+    @PluginMethod
+    public void hasEntitlement(PluginCall call) {
+        String productIdentifier = call.getString("productIdentifier");
+
+        if (productIdentifier == null) {
+            call.reject("Must provide a productID");
+            return;
+        }
+
+        implementation.hasEntitlement(productIdentifier, call);
+    }
+
     @PluginMethod
     public void getCurrentEntitlements(PluginCall call) {
+        if (Boolean.TRUE.equals(call.getBoolean("stream", Boolean.FALSE))) {
+            int pageSize = call.getInt("pageSize", DEFAULT_ENTITLEMENTS_PAGE_SIZE);
+            if (pageSize < 1) {
+                call.reject("pageSize must be at least 1");
+                return;
+            }
+
+            implementation.streamCurrentEntitlements(call, pageSize, page -> notifyListeners("ENTITLEMENTS-PAGE", page));
+            return;
+        }
+
         implementation.getCurrentEntitlements(call);
     }
 
+    @PluginMethod
+    public void getCachedEntitlements(PluginCall call) {
+        implementation.getCachedEntitlements(call);
+    }
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        call.resolve(implementation.getMetrics());
+    }
+
+    @PluginMethod
+    public void getStartupMetrics(PluginCall call) {
+        call.resolve(implementation.getStartupMetrics());
+    }
+
+    @PluginMethod
+    public void getTraces(PluginCall call) {
+        call.resolve(implementation.getTraces());
+    }
+
+    @PluginMethod
+    public void getVerificationStatus(PluginCall call) {
+        call.resolve(implementation.getVerificationStatus());
+    }
+
+    @PluginMethod
+    public void getExpiryCacheStats(PluginCall call) {
+        call.resolve(implementation.getExpiryCacheStats());
+    }
+
     @PluginMethod
     public void manageSubscriptions(PluginCall call) {
         String productIdentifier = call.getString("productIdentifier");
@@ -0,0 +1,157 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Gives every plugin call a trace ID which is handed along to the Billing callbacks and verification requests it
+// sets off, each of them adds a span (name, offset, duration, outcome) to the trace. Finished traces are kept in a
+// ring of the last bufferSize ones for getTraces(), so a slow call in production can be pinned on the step which
+// made it slow. Spans which arrive after the call resolved (e.g. a verification past the deadline) are still added
+class Tracer {
+
+    // Keeps a single trace from growing without bound, e.g. getCurrentEntitlements with hundreds of subscriptions
+    private static final int MAX_SPANS = 64;
+
+    static final class Trace {
+
+        // Stands in where there is no call to trace, records nothing
+        static final Trace NONE = new Trace(null, null);
+
+        final String traceId;
+        private final String name;
+        // Also the start the plugin metrics measure the call from
+        final long startedAt = Metrics.now();
+        private final long startedAtWallClock = System.currentTimeMillis();
+
+        // Guarded by this
+        private final List<JSObject> spans = new ArrayList<>();
+        private int droppedSpans = 0;
+        private long duration = -1;
+        private int responseCode = 0;
+
+        private Trace(String traceId, String name) {
+            this.traceId = traceId;
+            this.name = name;
+        }
+
+        // startedAt comes from Metrics.now(), detail is optional
+        void recordSpan(String spanName, long spanStartedAt, int spanResponseCode, String detail) {
+            if (traceId == null) {
+                return;
+            }
+
+            long now = Metrics.now();
+            JSObject span = new JSObject()
+                .put("name", spanName)
+                .put("start", spanStartedAt - startedAt)
+                .put("duration", now - spanStartedAt)
+                .put("responseCode", spanResponseCode);
+            if (detail != null) {
+                span.put("detail", detail);
+            }
+
+            synchronized (this) {
+                if (spans.size() < MAX_SPANS) {
+                    spans.add(span);
+                } else {
+                    droppedSpans++;
+                }
+            }
+        }
+
+        private synchronized void finish(int finalResponseCode) {
+            duration = Metrics.now() - startedAt;
+            responseCode = finalResponseCode;
+        }
+
+        synchronized JSObject toJSObject() {
+            JSObject data = new JSObject()
+                .put("traceId", traceId)
+                .put("name", name)
+                .put("startedAt", startedAtWallClock)
+                .put("duration", duration)
+                .put("responseCode", responseCode)
+                .put("spans", new JSArray(spans));
+            if (droppedSpans > 0) {
+                data.put("droppedSpans", droppedSpans);
+            }
+            return data;
+        }
+    }
+
+    // Finished traces, oldest first once the ring has wrapped. Guarded by this
+    private final Trace[] finished;
+    private int next = 0;
+    private int count = 0;
+    // Traces of plugin calls which haven't been resolved yet, keyed by callback ID
+    private final ConcurrentHashMap<String, Trace> pendingCalls = new ConcurrentHashMap<>();
+
+    // A bufferSize of 0 still hands out trace IDs for the verification requests, but keeps no traces
+    Tracer(int bufferSize) {
+        this.finished = new Trace[Math.max(0, bufferSize)];
+    }
+
+    Trace start(PluginCall call) {
+        Trace trace = start(call.getMethodName());
+        String callbackId = call.getCallbackId();
+        if (callbackId != null) {
+            pendingCalls.put(callbackId, trace);
+        }
+        return trace;
+    }
+
+    // For work which doesn't belong to a plugin call, like background refreshes
+    Trace start(String name) {
+        return new Trace(String.format(Locale.ROOT, "%016x", ThreadLocalRandom.current().nextLong()), name);
+    }
+
+    // Returns the trace of the call, or null when it was never started
+    Trace finish(PluginCall call, int responseCode) {
+        String callbackId = call.getCallbackId();
+        Trace trace = callbackId != null ? pendingCalls.remove(callbackId) : null;
+        if (trace != null) {
+            finish(trace, responseCode);
+        }
+        return trace;
+    }
+
+    void finish(Trace trace, int responseCode) {
+        if (trace.traceId == null) {
+            return;
+        }
+
+        trace.finish(responseCode);
+        if (finished.length == 0) {
+            return;
+        }
+
+        synchronized (this) {
+            finished[next] = trace;
+            next = (next + 1) % finished.length;
+            count = Math.min(finished.length, count + 1);
+        }
+    }
+
+    JSObject toJSObject() {
+        Trace[] snapshot;
+        synchronized (this) {
+            snapshot = new Trace[count];
+            int oldest = count < finished.length ? 0 : next;
+            for (int i = 0; i < count; i++) {
+                snapshot[i] = finished[(oldest + i) % finished.length];
+            }
+        }
+
+        JSArray traces = new JSArray();
+        for (Trace trace : snapshot) {
+            traces.put(trace.toJSObject());
+        }
+        return new JSObject().put("traces", traces);
+    }
+}
@@ -0,0 +1,336 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+// Talks to the app's own verification endpoint (see setApiVerificationDetails) to find out the expiry date
+// of a subscription transaction. All requests run on the client's own executor so that a slow backend never
+// holds up the Play Billing callback thread or any other plugin call. A circuit breaker stops sending requests
+// to an endpoint which keeps failing, and with hedging enabled a request which is slower than the usual p95 gets
+// a second one sent alongside it, whichever answers first wins. Every request carries the trace ID of the plugin call
+// it belongs to in an X-Trace-Id header, so the endpoint's logs can be matched with getTraces()
+class VerificationClient {
+
+    // Hedging only starts once the p95 is based on this many successful requests
+    private static final int HEDGING_MIN_SAMPLES = 20;
+
+    interface Callback {
+        // expiryDate is null when the transaction could not be verified
+        void onResult(String transactionId, String expiryDate);
+    }
+
+    // Picks the expiryDate string out of a response body, null when there is none. On a device the body is streamed
+    // through android.util.JsonReader, the JVM tests pass a parser built on org.json since android.* is only stubbed there
+    interface ResponseParser {
+        String readExpiryDate(Reader body) throws IOException;
+    }
+
+    static final ResponseParser STREAMING_PARSER = VerificationClient::readExpiryDate;
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final long requestTimeoutMs;
+    private final Metrics metrics;
+    private final CircuitBreaker breaker;
+    private final boolean hedging;
+    private final ResponseParser responseParser;
+    // Latency of successful requests, the hedging delay is its p95
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile String apiEndpoint = "";
+    private volatile String jwt = "";
+
+    VerificationClient(SubscriptionsConfig config, Metrics metrics, ResponseParser responseParser) {
+        this.executor = Executors.newFixedThreadPool(config.verificationConcurrency, new NamedThreadFactory("CapSubscriptions-verify"));
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapSubscriptions-watchdog"));
+        this.connectTimeoutMs = config.connectTimeoutMs;
+        this.readTimeoutMs = config.readTimeoutMs;
+        this.requestTimeoutMs = config.requestTimeoutMs;
+        this.metrics = metrics;
+        this.breaker = new CircuitBreaker(config.breakerThresholdPercent, config.slowCallMs, config.breakerCooldownMs);
+        this.hedging = config.hedging;
+        this.responseParser = responseParser;
+    }
+
+    void setBreakerListener(CircuitBreaker.Listener listener) {
+        breaker.setListener(listener);
+    }
+
+    // False while the circuit breaker is open, verifications would be answered with null right away
+    boolean isAvailable() {
+        return breaker.isAvailable();
+    }
+
+    JSObject getStatus() {
+        JSObject status = breaker.toJSObject();
+        status.put("rejected", rejected.get());
+        status.put("hedging", hedging);
+        status.put("hedgesSent", hedgesSent.get());
+        status.put("hedgesWon", hedgesWon.get());
+        status.put("p95", latencies.getPercentile(0.95));
+        return status;
+    }
+
+    void setCredentials(String apiEndpoint, String jwt) {
+        this.apiEndpoint = apiEndpoint;
+        this.jwt = jwt;
+    }
+
+    Future<?> verify(String transactionId, Tracer.Trace trace, Callback callback) {
+        Attempts attempts = new Attempts(transactionId, trace, callback);
+        attempts.primary = executor.submit(() -> attempts.run(false));
+
+        if (hedging && latencies.getCount() >= HEDGING_MIN_SAMPLES) {
+            attempts.hedge = watchdog.schedule(attempts::startHedge, Math.max(1, latencies.getPercentile(0.95)), TimeUnit.MILLISECONDS);
+        }
+        return attempts;
+    }
+
+    // The primary request and the optional hedge of one verification. The first answer with an expiry date wins,
+    // if neither has one the callback fires with null once the last of them is done. Cancelling cancels both
+    private final class Attempts extends FutureTask<Void> {
+
+        private final String transactionId;
+        private final Tracer.Trace trace;
+        private final Callback callback;
+        private final AtomicBoolean answered = new AtomicBoolean(false);
+        private final AtomicInteger running = new AtomicInteger(1);
+        private volatile Future<?> primary;
+        private volatile Future<?> hedge;
+
+        Attempts(String transactionId, Tracer.Trace trace, Callback callback) {
+            super(() -> null);
+            this.transactionId = transactionId;
+            this.trace = trace;
+            this.callback = callback;
+        }
+
+        void startHedge() {
+            if (answered.get() || isCancelled() || !breaker.isAvailable()) {
+                return;
+            }
+
+            running.incrementAndGet();
+            hedgesSent.incrementAndGet();
+            hedge = executor.submit(() -> run(true));
+        }
+
+        void run(boolean isHedge) {
+            if (answered.get() || isCancelled()) {
+                finish(null, isHedge);
+                return;
+            }
+
+            String expiryDate = null;
+            String endpoint = apiEndpoint;
+            // Without an endpoint there is nothing to verify against, which says nothing about the endpoint's health
+            if (endpoint != null && !endpoint.isEmpty()) {
+                long permit = breaker.tryAcquire();
+                if (permit != CircuitBreaker.NO_PERMIT) {
+                    try {
+                        expiryDate = fetchExpiryDate(endpoint, permit, transactionId, trace, isHedge);
+                    } catch (Exception e) {
+                        Log.e("VERIFY", "[" + trace.traceId + "] Expiry lookup failed for " + transactionId + ": " + e);
+                    }
+                } else {
+                    rejected.incrementAndGet();
+                    trace.recordSpan("verificationRejected", Metrics.now(), -1, transactionId);
+                }
+            }
+            finish(expiryDate, isHedge);
+        }
+
+        private void finish(String expiryDate, boolean isHedge) {
+            boolean last = running.decrementAndGet() == 0;
+            if ((expiryDate != null || last) && answered.compareAndSet(false, true)) {
+                if (isHedge && expiryDate != null) {
+                    hedgesWon.incrementAndGet();
+                }
+                Future<?> scheduledHedge = hedge;
+                if (scheduledHedge != null) {
+                    scheduledHedge.cancel(false);
+                }
+                callback.onResult(transactionId, expiryDate);
+                set(null);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            Future<?> runningPrimary = primary;
+            Future<?> runningHedge = hedge;
+            if (runningPrimary != null) {
+                runningPrimary.cancel(mayInterruptIfRunning);
+            }
+            if (runningHedge != null) {
+                runningHedge.cancel(mayInterruptIfRunning);
+            }
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    // Blocking, only to be called from the client's executor. Every request let through by the breaker reports back
+    // to it from the finally block, whichever way it ends - otherwise a half-open breaker would wait for its probe forever
+    String fetchExpiryDate(
+        String endpoint,
+        long permit,
+        String transactionId,
+        Tracer.Trace trace,
+        boolean isHedge
+    ) throws IOException {
+        long startedAt = Metrics.now();
+        long startedAtNanos = System.nanoTime();
+        // The HTTP status, or -1 when the request didn't get that far (timeout, no network...)
+        int status = -1;
+        String expiryDate = null;
+        AtomicReference<HttpURLConnection> active = new AtomicReference<>();
+        ScheduledFuture<?> abort = null;
+
+        try {
+            HttpURLConnection con = (HttpURLConnection) new URL(endpoint).openConnection();
+            active.set(con);
+
+            // Connect and read timeouts only cover single socket operations, a server trickling bytes back could
+            // still hold the request open forever - so the whole request is aborted once requestTimeout has passed
+            abort = watchdog.schedule(
+                () -> {
+                    HttpURLConnection stalled = active.getAndSet(null);
+                    if (stalled != null) {
+                        Log.w("VERIFY", "[" + trace.traceId + "] Verification request for " + transactionId + " timed out");
+                        stalled.disconnect();
+                    }
+                },
+                requestTimeoutMs,
+                TimeUnit.MILLISECONDS
+            );
+
+            con.setConnectTimeout(connectTimeoutMs);
+            con.setReadTimeout(readTimeoutMs);
+            con.setRequestMethod("POST");
+            con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            con.setRequestProperty("Accept", "application/json");
+            con.setRequestProperty("Accept-Encoding", "gzip");
+            con.setRequestProperty("Connection", "keep-alive");
+            con.setRequestProperty("Authorization", "Bearer " + this.jwt);
+            if (trace.traceId != null) {
+                con.setRequestProperty("X-Trace-Id", trace.traceId);
+            }
+            con.setDoOutput(true);
+
+            // JSObject escapes the ID, a quote or backslash in it must not break the JSON
+            byte[] body = new JSObject().put("transaction_id", transactionId).toString().getBytes(StandardCharsets.UTF_8);
+            con.setFixedLengthStreamingMode(body.length);
+
+            try (OutputStream os = con.getOutputStream()) {
+                os.write(body, 0, body.length);
+            }
+
+            status = con.getResponseCode();
+            if (status != 200) {
+                // The error body still has to be drained, otherwise the connection can't go back into the pool
+                drain(con.getErrorStream());
+                return null;
+            }
+
+            InputStream in = con.getInputStream();
+            if ("gzip".equalsIgnoreCase(con.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+
+            String expiryString;
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                expiryString = responseParser.readExpiryDate(reader);
+            }
+
+            expiryDate = normaliseExpiryDate(expiryString);
+            return expiryDate;
+        } finally {
+            if (abort != null) {
+                abort.cancel(false);
+            }
+            metrics.recordStage(Metrics.Stage.VERIFICATION, startedAt, status);
+            trace.recordSpan(isHedge ? "verificationHedge" : "verification", startedAt, status, transactionId);
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos);
+            // Only an expiry date counts as success, a 200 with a truncated or unusable body is as bad as an error
+            boolean success = expiryDate != null;
+            breaker.record(permit, success, latencyMs);
+            if (success) {
+                latencies.record(latencyMs, status);
+            }
+            // Never disconnect() on the happy path, closing the fully read stream returns the socket to the
+            // keep-alive pool so the next verification can skip the TCP and TLS handshakes
+            active.set(null);
+        }
+    }
+
+    // Picks the "expiryDate" key out of the top level object while streaming, without buffering the whole body.
+    // The rest of the body is still consumed so the connection can be reused
+    private static String readExpiryDate(Reader body) throws IOException {
+        String expiryString = null;
+
+        JsonReader reader = new JsonReader(body);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("expiryDate".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                expiryString = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return expiryString;
+    }
+
+    private static String normaliseExpiryDate(String expiryString) {
+        if (expiryString == null) {
+            return null;
+        }
+
+        String expiryDate = DateFormats.normaliseExpiryDate(expiryString);
+        if (expiryDate == null) {
+            Log.e("VERIFY", "Could not parse expiryDate " + expiryString);
+        }
+        return expiryDate;
+    }
+
+    private static void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[512];
+            while (stream.read(buffer) != -1) {
+                // discard
+            }
+        } catch (IOException ignored) {}
+    }
+}
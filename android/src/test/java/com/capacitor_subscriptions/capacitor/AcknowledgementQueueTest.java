@@ -0,0 +1,216 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AcknowledgementQueueTest {
+
+    @Rule
+    public TemporaryFolder storage = new TemporaryFolder();
+
+    @Test
+    public void journalsTokensUntilAcknowledged() throws Exception {
+        AcknowledgingGateway billing = new AcknowledgingGateway();
+        billing.hold = true;
+        AcknowledgementQueue queue = queue(billing);
+        Outcomes outcomes = new Outcomes(1);
+
+        queue.enqueue("token-1", outcomes);
+        billing.awaitAcknowledgements(1);
+        assertEquals(Collections.singletonList("P token-1"), journal());
+
+        billing.release(BillingClient.BillingResponseCode.OK);
+        outcomes.await();
+        assertEquals(Collections.singletonList("token-1 " + BillingClient.BillingResponseCode.OK), outcomes.results);
+        awaitJournal(Arrays.asList("P token-1", "A token-1"));
+    }
+
+    @Test
+    public void duplicatePurchaseEventsShareOneAcknowledgement() throws Exception {
+        AcknowledgingGateway billing = new AcknowledgingGateway();
+        billing.hold = true;
+        AcknowledgementQueue queue = queue(billing);
+        Outcomes outcomes = new Outcomes(2);
+
+        queue.enqueue("token-1", outcomes);
+        queue.enqueue("token-1", outcomes);
+        billing.awaitAcknowledgements(1);
+        billing.release(BillingClient.BillingResponseCode.OK);
+
+        outcomes.await();
+        assertEquals(1, billing.acknowledged.size());
+        assertEquals(2, outcomes.results.size());
+    }
+
+    @Test
+    public void replaysTokensWhichWereNeverAcknowledged() throws Exception {
+        File journal = new File(storage.getRoot(), "ack-journal");
+        Files.write(journal.toPath(), "P token-1\nP token-2\nA token-2\nP token-3\n".getBytes(StandardCharsets.UTF_8));
+        AcknowledgingGateway billing = new AcknowledgingGateway();
+
+        queue(billing).replay();
+
+        billing.awaitAcknowledgements(2);
+        assertEquals(Arrays.asList("token-1", "token-3"), sorted(billing.acknowledged));
+        // Compacted first, then both acknowledgements land
+        awaitJournal(Arrays.asList("P token-1", "P token-3", "A token-1", "A token-3"));
+    }
+
+    @Test
+    public void dropsTokensWhichCanNeverBeAcknowledged() throws Exception {
+        AcknowledgingGateway billing = new AcknowledgingGateway();
+        billing.responseCode = BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+        AcknowledgementQueue queue = queue(billing);
+        Outcomes outcomes = new Outcomes(1);
+
+        queue.enqueue("token-1", outcomes);
+
+        outcomes.await();
+        assertEquals(Collections.singletonList("token-1 " + BillingClient.BillingResponseCode.ITEM_NOT_OWNED), outcomes.results);
+        assertEquals(1, billing.acknowledged.size());
+        awaitJournal(Arrays.asList("P token-1", "A token-1"));
+    }
+
+    @Test
+    public void retriesFailedAcknowledgements() throws Exception {
+        AcknowledgingGateway billing = new AcknowledgingGateway();
+        billing.hold = true;
+        AcknowledgementQueue queue = queue(billing);
+        Outcomes outcomes = new Outcomes(1);
+
+        queue.enqueue("token-1", outcomes);
+        billing.awaitAcknowledgements(1);
+        billing.hold = false;
+        billing.release(BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE);
+
+        outcomes.await();
+        assertEquals(Collections.singletonList("token-1 " + BillingClient.BillingResponseCode.OK), outcomes.results);
+        assertEquals(2, billing.acknowledged.size());
+    }
+
+    private AcknowledgementQueue queue(AcknowledgingGateway billing) {
+        Metrics metrics = new Metrics();
+        BillingConnection connection = new BillingConnection(billing, 60000, new StartupTimings(SubscriptionsConfig.STARTUP_EAGER), metrics);
+        return new AcknowledgementQueue(billing, connection, storage.getRoot(), metrics);
+    }
+
+    private List<String> journal() throws Exception {
+        return Files.readAllLines(new File(storage.getRoot(), "ack-journal").toPath(), StandardCharsets.UTF_8);
+    }
+
+    // Journal writes happen on the queue's own thread
+    private void awaitJournal(List<String> expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!journal().equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, journal());
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    private static final class Outcomes implements AcknowledgementQueue.Callback {
+
+        final List<String> results = new CopyOnWriteArrayList<>();
+        final CountDownLatch done;
+
+        Outcomes(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onAcknowledged(String purchaseToken, BillingResult billingResult) {
+            results.add(purchaseToken + " " + billingResult.getResponseCode());
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Acknowledgement callback never fired", done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    // Connects right away and answers acknowledgements with responseCode, or holds them until released
+    private static final class AcknowledgingGateway implements BillingGateway {
+
+        final List<String> acknowledged = new CopyOnWriteArrayList<>();
+        final Map<String, AcknowledgePurchaseResponseListener> held = new ConcurrentHashMap<>();
+        volatile boolean hold;
+        volatile int responseCode = BillingClient.BillingResponseCode.OK;
+
+        void awaitAcknowledgements(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (acknowledged.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, acknowledged.size());
+        }
+
+        void release(int releasedResponseCode) {
+            for (String purchaseToken : new ArrayList<>(held.keySet())) {
+                held.remove(purchaseToken).onAcknowledgePurchaseResponse(result(releasedResponseCode));
+            }
+        }
+
+        @Override
+        public void startConnection(BillingClientStateListener listener) {
+            listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.OK));
+        }
+
+        @Override
+        public void acknowledgePurchase(String purchaseToken, AcknowledgePurchaseResponseListener listener) {
+            acknowledged.add(purchaseToken);
+            if (hold) {
+                held.put(purchaseToken, listener);
+            } else {
+                listener.onAcknowledgePurchaseResponse(result(responseCode));
+            }
+        }
+
+        @Override
+        public void queryProductDetails(List<String> productIdentifiers, String productType, ProductDetailsResponseListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void queryPurchases(String productType, PurchasesResponseListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BillingResult launchBillingFlow(Activity activity, ProductDetails productDetails, String offerToken, String accountId) {
+            throw new UnsupportedOperationException();
+        }
+
+        private static BillingResult result(int responseCode) {
+            return BillingResult.newBuilder().setResponseCode(responseCode).setDebugMessage("test").build();
+        }
+    }
+}
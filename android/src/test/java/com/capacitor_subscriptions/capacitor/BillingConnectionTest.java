@@ -0,0 +1,176 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class BillingConnectionTest {
+
+    @Test
+    public void queuesCallsUntilConnected() {
+        ConnectionGateway billing = new ConnectionGateway();
+        BillingConnection connection = connection(billing, 60000);
+        List<String> events = new CopyOnWriteArrayList<>();
+
+        connection.execute(task("first", events));
+        connection.execute(task("second", events));
+
+        // Both wait for the same connection attempt
+        assertEquals(1, billing.connections.get());
+        assertTrue(events.isEmpty());
+
+        billing.listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.OK));
+        assertEquals("[first ran, second ran]", events.toString());
+
+        connection.execute(task("third", events));
+        assertEquals("[first ran, second ran, third ran]", events.toString());
+        assertEquals(1, billing.connections.get());
+    }
+
+    @Test
+    public void failsQueuedCallsAfterTheTimeout() throws Exception {
+        ConnectionGateway billing = new ConnectionGateway();
+        BillingConnection connection = connection(billing, 50);
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch failed = new CountDownLatch(1);
+
+        connection.execute(
+            new BillingConnection.Task() {
+                @Override
+                public void run() {
+                    events.add("ran");
+                }
+
+                @Override
+                public void fail(int responseCode, String responseMessage) {
+                    events.add("failed " + responseCode);
+                    failed.countDown();
+                }
+            }
+        );
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        // A connection coming up afterwards doesn't run it anymore
+        billing.listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.OK));
+        assertEquals("[failed 503]", events.toString());
+    }
+
+    @Test
+    public void unavailableBillingFailsQueuedCallsAndRetriesOnTheNextOne() {
+        ConnectionGateway billing = new ConnectionGateway();
+        BillingConnection connection = connection(billing, 60000);
+        List<String> events = new CopyOnWriteArrayList<>();
+
+        connection.execute(task("first", events));
+        billing.listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.BILLING_UNAVAILABLE));
+        assertEquals("[first failed 500]", events.toString());
+
+        connection.execute(task("second", events));
+        assertEquals(2, billing.connections.get());
+        assertEquals(2, billing.callerConnections.get());
+    }
+
+    @Test
+    public void callsWaitForTheScheduledReconnect() throws Exception {
+        ConnectionGateway billing = new ConnectionGateway();
+        BillingConnection connection = connection(billing, 60000);
+        List<String> events = new CopyOnWriteArrayList<>();
+
+        connection.execute(task("first", events));
+        billing.listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.OK));
+        billing.listener.onBillingServiceDisconnected();
+
+        connection.execute(task("second", events));
+        // Only the backoff reconnects, never the call itself
+        assertEquals(1, billing.callerConnections.get());
+        billing.awaitConnections(2);
+        assertEquals(1, billing.callerConnections.get());
+
+        billing.listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.OK));
+        assertEquals("[first ran, second ran]", events.toString());
+    }
+
+    private static BillingConnection connection(ConnectionGateway billing, long queueTimeoutMs) {
+        billing.caller = Thread.currentThread();
+        return new BillingConnection(billing, queueTimeoutMs, new StartupTimings(SubscriptionsConfig.STARTUP_EAGER), new Metrics());
+    }
+
+    private static BillingConnection.Task task(String name, List<String> events) {
+        return new BillingConnection.Task() {
+            @Override
+            public void run() {
+                events.add(name + " ran");
+            }
+
+            @Override
+            public void fail(int responseCode, String responseMessage) {
+                events.add(name + " failed " + responseCode);
+            }
+        };
+    }
+
+    private static BillingResult result(int responseCode) {
+        return BillingResult.newBuilder().setResponseCode(responseCode).setDebugMessage("test").build();
+    }
+
+    // Only connects, the test decides when and how the setup finishes
+    private static final class ConnectionGateway implements BillingGateway {
+
+        final AtomicInteger connections = new AtomicInteger();
+        // Connections started right from the test thread rather than from the reconnect backoff
+        final AtomicInteger callerConnections = new AtomicInteger();
+        volatile Thread caller;
+        volatile BillingClientStateListener listener;
+
+        void awaitConnections(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (connections.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, connections.get());
+        }
+
+        @Override
+        public void startConnection(BillingClientStateListener listener) {
+            this.listener = listener;
+            if (Thread.currentThread() == caller) {
+                callerConnections.incrementAndGet();
+            }
+            connections.incrementAndGet();
+        }
+
+        @Override
+        public void queryProductDetails(List<String> productIdentifiers, String productType, ProductDetailsResponseListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void queryPurchases(String productType, PurchasesResponseListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void acknowledgePurchase(String purchaseToken, AcknowledgePurchaseResponseListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BillingResult launchBillingFlow(Activity activity, ProductDetails productDetails, String offerToken, String accountId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final long SLOW_CALL_MS = 1000;
+
+    @Test
+    public void opensOnceEnoughRequestsFailed() {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW_CALL_MS, 60000);
+
+        // Below the minimum number of calls even a 100% failure rate keeps it closed
+        for (int i = 0; i < 9; i++) {
+            breaker.record(breaker.tryAcquire(), false, 10);
+        }
+        assertEquals(CircuitBreaker.CLOSED, state(breaker));
+
+        breaker.record(breaker.tryAcquire(), false, 10);
+        assertEquals(CircuitBreaker.OPEN, state(breaker));
+        assertEquals(CircuitBreaker.NO_PERMIT, breaker.tryAcquire());
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW_CALL_MS, 60000);
+
+        for (int i = 0; i < 40; i++) {
+            breaker.record(breaker.tryAcquire(), i % 3 != 0, 10);
+        }
+        assertEquals(CircuitBreaker.CLOSED, state(breaker));
+    }
+
+    @Test
+    public void slowCallsCountAsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW_CALL_MS, 60000);
+
+        for (int i = 0; i < 10; i++) {
+            breaker.record(breaker.tryAcquire(), true, SLOW_CALL_MS);
+        }
+        assertEquals(CircuitBreaker.OPEN, state(breaker));
+    }
+
+    @Test
+    public void thresholdOfZeroNeverOpens() {
+        CircuitBreaker breaker = new CircuitBreaker(0, SLOW_CALL_MS, 60000);
+
+        for (int i = 0; i < 40; i++) {
+            breaker.record(breaker.tryAcquire(), false, 10);
+        }
+        assertEquals(CircuitBreaker.CLOSED, state(breaker));
+    }
+
+    @Test
+    public void successfulProbeClosesAgain() {
+        CircuitBreaker breaker = openBreaker(0);
+
+        long probe = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.NO_PERMIT, probe);
+        assertEquals(CircuitBreaker.HALF_OPEN, state(breaker));
+        // Only a single probe is let through
+        assertEquals(CircuitBreaker.NO_PERMIT, breaker.tryAcquire());
+
+        breaker.record(probe, true, 10);
+        assertEquals(CircuitBreaker.CLOSED, state(breaker));
+        assertEquals(0, (int) breaker.toJSObject().getInteger("requests"));
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        CircuitBreaker breaker = openBreaker(0);
+
+        breaker.record(breaker.tryAcquire(), false, 10);
+        assertEquals(CircuitBreaker.OPEN, state(breaker));
+    }
+
+    @Test
+    public void ignoresOutcomesFromBeforeTheProbe() {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW_CALL_MS, 0);
+        long[] permits = new long[12];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = breaker.tryAcquire();
+        }
+        for (int i = 0; i < 10; i++) {
+            breaker.record(permits[i], false, 10);
+        }
+        assertEquals(CircuitBreaker.OPEN, state(breaker));
+
+        long probe = breaker.tryAcquire();
+        assertEquals(CircuitBreaker.HALF_OPEN, state(breaker));
+
+        // Requests let through while the breaker was still closed finish during the probe
+        breaker.record(permits[10], true, 10);
+        breaker.record(permits[11], false, 10);
+        assertEquals(CircuitBreaker.HALF_OPEN, state(breaker));
+        assertEquals(CircuitBreaker.NO_PERMIT, breaker.tryAcquire());
+
+        breaker.record(probe, true, 10);
+        assertEquals(CircuitBreaker.CLOSED, state(breaker));
+
+        // And a late probe result can't touch the closed breaker
+        breaker.record(probe, false, 10);
+        assertEquals(0, (int) breaker.toJSObject().getInteger("requests"));
+    }
+
+    @Test
+    public void notifiesListenerOnStateChanges() {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW_CALL_MS, 0);
+        StringBuilder states = new StringBuilder();
+        breaker.setListener(status -> states.append(status.getString("state")).append(' '));
+
+        for (int i = 0; i < 10; i++) {
+            breaker.record(breaker.tryAcquire(), false, 10);
+        }
+        breaker.record(breaker.tryAcquire(), true, 10);
+
+        assertEquals("open halfOpen closed ", states.toString());
+    }
+
+    private static CircuitBreaker openBreaker(long cooldownMs) {
+        CircuitBreaker breaker = new CircuitBreaker(50, SLOW_CALL_MS, cooldownMs);
+        for (int i = 0; i < 10; i++) {
+            breaker.record(breaker.tryAcquire(), false, 10);
+        }
+        return breaker;
+    }
+
+    private static String state(CircuitBreaker breaker) {
+        return breaker.toJSObject().getString("state");
+    }
+}
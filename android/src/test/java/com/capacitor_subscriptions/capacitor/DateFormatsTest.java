@@ -0,0 +1,38 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DateFormatsTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    @After
+    public void tearDown() {
+        DateFormats.onTimeZoneChanged(null);
+    }
+
+    @Test
+    public void followsTimeZoneChanges() {
+        DateFormats.onTimeZoneChanged("UTC");
+        assertEquals("01-01-1970 12:00", DateFormats.formatStartDate(0));
+        assertEquals(DAY_MS, DateFormats.parseExpiryDate("1970-01-02 00:00:00"));
+
+        DateFormats.onTimeZoneChanged("Asia/Tokyo");
+        assertEquals("01-01-1970 09:00", DateFormats.formatStartDate(0));
+        assertEquals(DAY_MS - 9 * 60 * 60 * 1000L, DateFormats.parseExpiryDate("1970-01-02 00:00:00"));
+    }
+
+    @Test
+    public void normalisesExpiryDates() {
+        DateFormats.onTimeZoneChanged("UTC");
+
+        assertEquals("2030-01-02 03:04:05", DateFormats.normaliseExpiryDate("2030-01-02 03:04:05"));
+        assertEquals("2030-01-02 03:04:05", DateFormats.normaliseExpiryDate("2030-01-02 03:04:05.678Z"));
+        assertNull(DateFormats.normaliseExpiryDate("next month"));
+        assertNull(DateFormats.normaliseExpiryDate(null));
+    }
+}
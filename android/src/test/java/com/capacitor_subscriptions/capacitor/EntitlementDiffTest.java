@@ -0,0 +1,116 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.BillingClient;
+import com.getcapacitor.JSObject;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import org.json.JSONArray;
+import org.junit.Test;
+
+public class EntitlementDiffTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void firstSnapshotOnlyBecomesTheBaseline() {
+        EntitlementDiff diff = new EntitlementDiff();
+
+        assertFalse(diff.hasBaseline());
+        assertNull(diff.update(Collections.singletonList(subscription("token-1", DAY_MS))));
+        assertTrue(diff.hasBaseline());
+        assertNull(diff.update(Collections.singletonList(subscription("token-1", DAY_MS))));
+    }
+
+    @Test
+    public void reportsAddedEntitlements() {
+        EntitlementDiff diff = new EntitlementDiff();
+        diff.seed(Collections.singletonList(subscription("token-1", DAY_MS)), System.currentTimeMillis());
+
+        JSObject changes = diff.update(Arrays.asList(subscription("token-1", DAY_MS), oneTimeProduct("token-2")));
+
+        assertEquals(Collections.singletonList("token-2"), tokens(changes, "added"));
+        assertEquals(Collections.emptyList(), tokens(changes, "renewed"));
+        assertEquals(Collections.emptyList(), tokens(changes, "expired"));
+    }
+
+    @Test
+    public void reportsRenewals() {
+        EntitlementDiff diff = new EntitlementDiff();
+        diff.update(Collections.singletonList(subscription("token-1", DAY_MS)));
+
+        JSObject changes = diff.update(Collections.singletonList(subscription("token-1", 31 * DAY_MS)));
+
+        assertEquals(Collections.singletonList("token-1"), tokens(changes, "renewed"));
+    }
+
+    @Test
+    public void reportsExpiredEntitlements() {
+        EntitlementDiff diff = new EntitlementDiff();
+        diff.update(Arrays.asList(subscription("token-1", DAY_MS), subscription("token-2", DAY_MS), oneTimeProduct("token-3")));
+
+        // token-1 ran out, token-2 and the one-time product aren't listed by Play anymore
+        JSObject changes = diff.update(Collections.singletonList(subscription("token-1", -DAY_MS)));
+
+        List<String> expired = tokens(changes, "expired");
+        Collections.sort(expired);
+        assertEquals(Arrays.asList("token-1", "token-2", "token-3"), expired);
+        assertNull(diff.update(Collections.singletonList(subscription("token-1", -DAY_MS))));
+    }
+
+    @Test
+    public void ignoresEntitlementsWhichHadAlreadyExpired() {
+        EntitlementDiff diff = new EntitlementDiff();
+        diff.update(Collections.singletonList(subscription("token-1", -DAY_MS)));
+
+        assertNull(diff.update(Collections.<EntitlementStore.Entry>emptyList()));
+    }
+
+    @Test
+    public void unverifiedSnapshotKeepsTheLastExpiryDate() {
+        EntitlementDiff diff = new EntitlementDiff();
+        diff.update(Collections.singletonList(subscription("token-1", DAY_MS)));
+
+        assertNull(diff.update(Collections.singletonList(subscription("token-1", null))));
+        JSObject changes = diff.update(Collections.singletonList(subscription("token-1", 31 * DAY_MS)));
+
+        assertEquals(Collections.singletonList("token-1"), tokens(changes, "renewed"));
+    }
+
+    @Test
+    public void seedIsIgnoredOnceThereIsABaseline() {
+        EntitlementDiff diff = new EntitlementDiff();
+        diff.update(Collections.singletonList(subscription("token-1", DAY_MS)));
+        diff.seed(Collections.<EntitlementStore.Entry>emptyList(), System.currentTimeMillis());
+
+        assertNull(diff.update(Collections.singletonList(subscription("token-1", DAY_MS))));
+    }
+
+    private static EntitlementStore.Entry subscription(String purchaseToken, Long expiresInMs) {
+        String expiryDate = expiresInMs != null
+            ? new SimpleDateFormat(DateFormats.EXPIRY_DATE_PATTERN, Locale.getDefault()).format(new Date(System.currentTimeMillis() + expiresInMs))
+            : null;
+        return new EntitlementStore.Entry("premium", BillingClient.ProductType.SUBS, expiryDate, null, "GPA." + purchaseToken, purchaseToken, false);
+    }
+
+    private static EntitlementStore.Entry oneTimeProduct(String purchaseToken) {
+        return new EntitlementStore.Entry("lifetime", BillingClient.ProductType.INAPP, null, null, "GPA." + purchaseToken, purchaseToken, false);
+    }
+
+    private static List<String> tokens(JSObject changes, String kind) {
+        JSONArray entitlements = changes.optJSONArray(kind);
+        String[] tokens = new String[entitlements.length()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = entitlements.optJSONObject(i).optString("purchaseToken");
+        }
+        return Arrays.asList(tokens);
+    }
+}
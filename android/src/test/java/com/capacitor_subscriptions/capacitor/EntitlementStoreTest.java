@@ -0,0 +1,136 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.billingclient.api.BillingClient;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EntitlementStoreTest {
+
+    private static final List<EntitlementStore.Entry> ENTITLEMENTS = Arrays.asList(
+        new EntitlementStore.Entry("premium", BillingClient.ProductType.SUBS, "2030-01-01 00:00:00", "01-01-2024 12:00", "GPA.1", "token-1", false),
+        new EntitlementStore.Entry("lifetime", BillingClient.ProductType.INAPP, null, "01-02-2024 12:00", "GPA.2", "token-2", false),
+        new EntitlementStore.Entry("basic", BillingClient.ProductType.SUBS, null, "01-03-2024 12:00", "GPA.3", "token-3", true)
+    );
+
+    @Rule
+    public TemporaryFolder storage = new TemporaryFolder();
+
+    @Test
+    public void startsEmpty() {
+        EntitlementStore store = new EntitlementStore(storage.getRoot());
+
+        assertFalse(store.hasEntries());
+        assertNull(store.get());
+    }
+
+    @Test
+    public void reportsWhetherEntitlementsChanged() {
+        EntitlementStore store = new EntitlementStore(storage.getRoot());
+
+        assertTrue(store.update(ENTITLEMENTS));
+        assertFalse(store.update(ENTITLEMENTS));
+        assertTrue(store.update(ENTITLEMENTS.subList(0, 1)));
+    }
+
+    @Test
+    public void survivesRestarts() throws Exception {
+        EntitlementStore store = new EntitlementStore(storage.getRoot());
+        store.update(ENTITLEMENTS);
+        awaitFile();
+
+        EntitlementStore restarted = new EntitlementStore(storage.getRoot());
+        assertEquals(ENTITLEMENTS, restarted.get());
+        assertEquals(store.getSavedAt(), restarted.getSavedAt());
+    }
+
+    @Test
+    public void rejectsCorruptedFiles() throws Exception {
+        new EntitlementStore(storage.getRoot()).update(ENTITLEMENTS);
+        File file = awaitFile();
+
+        // Still decodes fine, only the checksum gives it away
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int offset = indexOf(bytes, "premium".getBytes(StandardCharsets.UTF_8));
+        bytes[offset] = 'P';
+        Files.write(file.toPath(), bytes);
+
+        EntitlementStore restarted = new EntitlementStore(storage.getRoot());
+        assertFalse(restarted.hasEntries());
+        assertEquals(0, restarted.getSavedAt());
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws Exception {
+        new EntitlementStore(storage.getRoot()).update(ENTITLEMENTS);
+        File file = awaitFile();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertNull(new EntitlementStore(storage.getRoot()).get());
+    }
+
+    @Test
+    public void fileEndsUpWithTheLastUpdate() throws Exception {
+        EntitlementStore store = new EntitlementStore(storage.getRoot());
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            int writer = i;
+            writers[i] = new Thread(() -> {
+                for (int j = 0; j < 200; j++) {
+                    store.update(ENTITLEMENTS.subList(0, 1 + (writer + j) % ENTITLEMENTS.size()));
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        List<EntitlementStore.Entry> stored = null;
+        while (System.currentTimeMillis() < deadline) {
+            stored = new EntitlementStore(storage.getRoot()).get();
+            if (store.get().equals(stored)) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(store.get(), stored);
+    }
+
+    // Writes happen on the store's own thread
+    private File awaitFile() throws Exception {
+        File file = new File(storage.getRoot(), "entitlements");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (file.exists()) {
+                return file;
+            }
+            Thread.sleep(10);
+        }
+        fail("Entitlement store was never written");
+        return file;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+}
@@ -0,0 +1,143 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExpiryCacheTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder storage = new TemporaryFolder();
+
+    @Test
+    public void remembersExpiryDates() throws Exception {
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        String expiryDate = expiryDate(HOUR_MS * 24);
+
+        assertNull(cache.get("GPA.1"));
+        cache.put("GPA.1", expiryDate);
+
+        assertEquals(expiryDate, cache.get("GPA.1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void dropsEntriesAfterTheTtl() throws Exception {
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), 50, 10);
+        cache.put("GPA.1", expiryDate(HOUR_MS * 24));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get("GPA.1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void neverStoresExpiredSubscriptions() throws Exception {
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        cache.put("GPA.1", expiryDate(-HOUR_MS));
+
+        assertNull(cache.get("GPA.1"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), HOUR_MS, 2);
+        String expiryDate = expiryDate(HOUR_MS * 24);
+        cache.put("GPA.1", expiryDate);
+        cache.put("GPA.2", expiryDate);
+        cache.get("GPA.1");
+        cache.put("GPA.3", expiryDate);
+
+        assertEquals(2, cache.size());
+        assertEquals(expiryDate, cache.get("GPA.1"));
+        assertNull(cache.get("GPA.2"));
+        assertEquals(expiryDate, cache.get("GPA.3"));
+    }
+
+    @Test
+    public void survivesRestarts() throws Exception {
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        String expiryDate = expiryDate(HOUR_MS * 24);
+        cache.put("GPA.1", expiryDate);
+        cache.put("GPA.2", expiryDate);
+        awaitFile("GPA.2\t", true);
+        cache.invalidate(Collections.singletonList("GPA.2"));
+        awaitFile("GPA.2\t", false);
+
+        ExpiryCache restarted = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        assertEquals(expiryDate, restarted.get("GPA.1"));
+        assertNull(restarted.get("GPA.2"));
+    }
+
+    @Test
+    public void preloadsInTheBackground() throws Exception {
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        String expiryDate = expiryDate(HOUR_MS * 24);
+        cache.put("GPA.1", expiryDate);
+        awaitFile("GPA.1\t", true);
+
+        ExpiryCache restarted = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        restarted.preload();
+        // size() doesn't load the file itself
+        long deadline = System.currentTimeMillis() + 5000;
+        while (restarted.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, restarted.size());
+        assertEquals(expiryDate, restarted.get("GPA.1"));
+    }
+
+    @Test
+    public void ignoresMalformedLines() throws Exception {
+        String expiryDate = expiryDate(HOUR_MS * 24);
+        long validUntil = System.currentTimeMillis() + HOUR_MS;
+        File file = new File(storage.getRoot(), "expiry-cache");
+        Files.write(
+            file.toPath(),
+            ("GPA.1\t" + validUntil + "\t" + expiryDate + "\nbroken line\nGPA.2\t1\t" + expiryDate + "\n").getBytes(StandardCharsets.UTF_8)
+        );
+
+        ExpiryCache cache = new ExpiryCache(storage.getRoot(), HOUR_MS, 10);
+        assertEquals(expiryDate, cache.get("GPA.1"));
+        // Its TTL had already run out when it was read back
+        assertNull(cache.get("GPA.2"));
+    }
+
+    private static String expiryDate(long expiresInMs) {
+        return new SimpleDateFormat(DateFormats.EXPIRY_DATE_PATTERN, Locale.getDefault()).format(
+            new Date(System.currentTimeMillis() + expiresInMs)
+        );
+    }
+
+    // Writes happen on the cache's own thread one after the other, waits until the last one is in
+    private void awaitFile(String line, boolean contained) throws Exception {
+        File file = new File(storage.getRoot(), "expiry-cache");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (file.exists()) {
+                String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                if (content.contains(line) == contained) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("Expiry cache was never written");
+    }
+}
@@ -0,0 +1,192 @@
+package com.capacitor_subscriptions.capacitor;
+
+import android.app.Activity;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-process stand-in for Play Billing. Every request is answered on a small thread pool after a random delay,
+// a configurable share of them fails, and the user owns as many purchases as the test asks for. All products and
+// purchases are subscriptions, queries for one-time products come back empty
+class FakeBillingGateway implements BillingGateway {
+
+    static final class Options {
+
+        long minLatencyMs = 5;
+        long maxLatencyMs = 40;
+        double errorRate = 0;
+        int errorCode = BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE;
+        int productCount = 50;
+        int purchaseCount = 100;
+
+        Options latency(long minLatencyMs, long maxLatencyMs) {
+            this.minLatencyMs = minLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+            return this;
+        }
+
+        Options errors(double errorRate, int errorCode) {
+            this.errorRate = errorRate;
+            this.errorCode = errorCode;
+            return this;
+        }
+
+        Options products(int productCount) {
+            this.productCount = productCount;
+            return this;
+        }
+
+        Options purchases(int purchaseCount) {
+            this.purchaseCount = purchaseCount;
+            return this;
+        }
+    }
+
+    static final String PACKAGE_NAME = "com.example.subscriptions";
+
+    final AtomicInteger productQueries = new AtomicInteger();
+    final AtomicInteger purchaseQueries = new AtomicInteger();
+    final AtomicInteger acknowledgements = new AtomicInteger();
+
+    private final Options options;
+    private final Random random = new Random(42);
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4, new NamedThreadFactory("FakeBilling"));
+    private final Map<String, ProductDetails> products = new LinkedHashMap<>();
+    private final List<Purchase> purchases = new ArrayList<>();
+
+    FakeBillingGateway(Options options) throws Exception {
+        this.options = options;
+
+        for (int i = 0; i < options.productCount; i++) {
+            ProductDetails productDetails = newProductDetails(productId(i));
+            products.put(productDetails.getProductId(), productDetails);
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < options.purchaseCount; i++) {
+            String json =
+                "{\"orderId\":\"GPA.0000-" +
+                i +
+                "\",\"packageName\":\"" +
+                PACKAGE_NAME +
+                "\",\"productId\":\"" +
+                productId(i % Math.max(1, options.productCount)) +
+                "\",\"purchaseTime\":" +
+                (now - i * 60000L) +
+                ",\"purchaseState\":0,\"purchaseToken\":\"token-" +
+                i +
+                "\",\"acknowledged\":true,\"autoRenewing\":true}";
+            purchases.add(new Purchase(json, "signature"));
+        }
+    }
+
+    static String productId(int index) {
+        return "product." + index;
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void startConnection(BillingClientStateListener listener) {
+        later(() -> listener.onBillingSetupFinished(result(BillingClient.BillingResponseCode.OK)));
+    }
+
+    @Override
+    public void queryProductDetails(List<String> productIdentifiers, String productType, ProductDetailsResponseListener listener) {
+        productQueries.incrementAndGet();
+        later(() -> {
+            if (fails()) {
+                listener.onProductDetailsResponse(result(options.errorCode), Collections.emptyList());
+                return;
+            }
+
+            List<ProductDetails> found = new ArrayList<>();
+            for (String productIdentifier : productIdentifiers) {
+                ProductDetails productDetails = products.get(productIdentifier);
+                if (productDetails != null && productDetails.getProductType().equals(productType)) {
+                    found.add(productDetails);
+                }
+            }
+            listener.onProductDetailsResponse(result(BillingClient.BillingResponseCode.OK), found);
+        });
+    }
+
+    @Override
+    public void queryPurchases(String productType, PurchasesResponseListener listener) {
+        purchaseQueries.incrementAndGet();
+        later(() -> {
+            if (fails()) {
+                listener.onQueryPurchasesResponse(result(options.errorCode), Collections.emptyList());
+            } else if (BillingClient.ProductType.SUBS.equals(productType)) {
+                listener.onQueryPurchasesResponse(result(BillingClient.BillingResponseCode.OK), purchases);
+            } else {
+                listener.onQueryPurchasesResponse(result(BillingClient.BillingResponseCode.OK), Collections.emptyList());
+            }
+        });
+    }
+
+    @Override
+    public void acknowledgePurchase(String purchaseToken, AcknowledgePurchaseResponseListener listener) {
+        acknowledgements.incrementAndGet();
+        later(() -> listener.onAcknowledgePurchaseResponse(result(fails() ? options.errorCode : BillingClient.BillingResponseCode.OK)));
+    }
+
+    @Override
+    public BillingResult launchBillingFlow(Activity activity, ProductDetails productDetails, String offerToken, String accountId) {
+        return result(BillingClient.BillingResponseCode.OK);
+    }
+
+    private void later(Runnable runnable) {
+        long spread = Math.max(0, options.maxLatencyMs - options.minLatencyMs);
+        long delay = options.minLatencyMs + (spread > 0 ? (long) (random.nextDouble() * spread) : 0);
+        scheduler.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean fails() {
+        return options.errorRate > 0 && random.nextDouble() < options.errorRate;
+    }
+
+    private static BillingResult result(int responseCode) {
+        return BillingResult.newBuilder().setResponseCode(responseCode).setDebugMessage("fake").build();
+    }
+
+    // ProductDetails only has a package-private JSON constructor, the same one the library uses for Play's responses
+    private static ProductDetails newProductDetails(String productId) throws Exception {
+        String json =
+            "{\"productId\":\"" +
+            productId +
+            "\",\"type\":\"subs\",\"title\":\"" +
+            productId +
+            " (Subscriptions)\",\"name\":\"" +
+            productId +
+            "\",\"description\":\"Test subscription\",\"packageName\":\"" +
+            PACKAGE_NAME +
+            "\",\"skuDetailsToken\":\"details-token\",\"subscriptionOfferDetails\":[{\"basePlanId\":\"monthly\"," +
+            "\"offerIdToken\":\"offer-token-" +
+            productId +
+            "\",\"offerTags\":[],\"pricingPhases\":[{\"priceAmountMicros\":4990000,\"priceCurrencyCode\":\"EUR\"," +
+            "\"formattedPrice\":\"€4.99\",\"billingPeriod\":\"P1M\",\"billingCycleCount\":0,\"recurrenceMode\":1}]}]}";
+
+        Constructor<ProductDetails> constructor = ProductDetails.class.getDeclaredConstructor(String.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(json);
+    }
+}
@@ -0,0 +1,63 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.getcapacitor.JSObject;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreAccurateToTheBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i, 0);
+        }
+
+        JSObject data = histogram.toJSObject();
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, data.optLong("mean"));
+        // 50 falls into [32, 64), 95 and 99 into [64, 128) which is capped at the max
+        assertEquals(63, data.optLong("p50"));
+        assertEquals(100, data.optLong("p95"));
+        assertEquals(100, data.optLong("p99"));
+        assertEquals(100, data.optLong("max"));
+    }
+
+    @Test
+    public void countsResponseCodes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10, 200);
+        histogram.record(10, 200);
+        histogram.record(10, -1);
+        histogram.record(10, 500);
+        // Same slot as 7
+        histogram.record(10, 503);
+        histogram.record(10, 7);
+
+        JSONObject responseCodes = histogram.toJSObject().optJSONObject("responseCodes");
+        assertEquals(5, responseCodes.length());
+        assertEquals(2, responseCodes.optLong("200"));
+        assertEquals(1, responseCodes.optLong("-1"));
+        assertEquals(1, responseCodes.optLong("500"));
+        assertEquals(1, responseCodes.optLong("503"));
+        assertEquals(1, responseCodes.optLong("7"));
+    }
+
+    @Test
+    public void countsOverflowingCodesAsOther() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int code = 0; code < 20; code++) {
+            histogram.record(10, code);
+        }
+        histogram.record(10, 3);
+
+        JSONObject responseCodes = histogram.toJSObject().optJSONObject("responseCodes");
+        assertEquals(17, responseCodes.length());
+        assertEquals(2, responseCodes.optLong("3"));
+        assertEquals(4, responseCodes.optLong("other"));
+        assertFalse(responseCodes.has("19"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.ProductDetails;
+import java.lang.reflect.Constructor;
+import org.junit.Test;
+
+public class OfferIndexTest {
+
+    // Two base plans which both have a "trial" offer, the monthly one comes first
+    private static final String OFFERS =
+        "[" +
+        offer("monthly", null, "[]") +
+        "," +
+        offer("monthly", "trial", "[\"intro\"]") +
+        "," +
+        offer("yearly", null, "[]") +
+        "," +
+        offer("yearly", "trial", "[\"intro\"]") +
+        "," +
+        offer("yearly", "winback", "[\"winback\",\"discount\"]") +
+        "]";
+
+    @Test
+    public void defaultsToTheFirstOffer() throws Exception {
+        OfferIndex index = OfferIndex.of(productDetails(OFFERS));
+
+        assertEquals("token-monthly", index.find(null, null, null).offerToken);
+        assertSame(index.getDefault(), index.find(null, null, null));
+    }
+
+    @Test
+    public void findsBasePlans() throws Exception {
+        OfferIndex index = OfferIndex.of(productDetails(OFFERS));
+
+        assertEquals("token-yearly", index.find("yearly", null, null).offerToken);
+        assertNull(index.find("weekly", null, null));
+    }
+
+    @Test
+    public void findsOffersById() throws Exception {
+        OfferIndex index = OfferIndex.of(productDetails(OFFERS));
+
+        // Without a base plan the first offer with that ID wins
+        assertEquals("token-monthly-trial", index.find(null, "trial", null).offerToken);
+        assertEquals("token-yearly-trial", index.find("yearly", "trial", null).offerToken);
+        assertNull(index.find("monthly", "winback", null));
+        // An offer ID wins over a tag
+        assertEquals("token-yearly-winback", index.find(null, "winback", "intro").offerToken);
+    }
+
+    @Test
+    public void findsOffersByTag() throws Exception {
+        OfferIndex index = OfferIndex.of(productDetails(OFFERS));
+
+        assertEquals("token-monthly-trial", index.find(null, null, "intro").offerToken);
+        assertEquals("token-yearly-trial", index.find("yearly", null, "intro").offerToken);
+        assertEquals("token-yearly-winback", index.find(null, null, "discount").offerToken);
+        assertNull(index.find("monthly", null, "discount"));
+        assertNull(index.find(null, null, "unknown"));
+    }
+
+    @Test
+    public void oneTimeProductsHaveNoOffers() throws Exception {
+        OfferIndex index = OfferIndex.of(productDetails(null));
+
+        assertTrue(index.isEmpty());
+        assertNull(index.find(null, null, null));
+        assertEquals(0, index.toJSArray().length());
+    }
+
+    private static String offer(String basePlanId, String offerId, String offerTags) {
+        String token = "token-" + basePlanId + (offerId != null ? "-" + offerId : "");
+        return (
+            "{\"basePlanId\":\"" +
+            basePlanId +
+            "\"" +
+            (offerId != null ? ",\"offerId\":\"" + offerId + "\"" : "") +
+            ",\"offerIdToken\":\"" +
+            token +
+            "\",\"offerTags\":" +
+            offerTags +
+            ",\"pricingPhases\":[{\"priceAmountMicros\":4990000,\"priceCurrencyCode\":\"EUR\",\"formattedPrice\":\"€4.99\"," +
+            "\"billingPeriod\":\"P1M\",\"billingCycleCount\":0,\"recurrenceMode\":1}]}"
+        );
+    }
+
+    // Same as FakeBillingGateway, ProductDetails only has a package-private JSON constructor
+    private static ProductDetails productDetails(String offers) throws Exception {
+        String json =
+            "{\"productId\":\"premium\",\"type\":\"" +
+            (offers != null ? "subs" : "inapp") +
+            "\",\"title\":\"Premium\",\"name\":\"Premium\",\"description\":\"Test product\",\"packageName\":\"" +
+            FakeBillingGateway.PACKAGE_NAME +
+            "\",\"skuDetailsToken\":\"details-token\"" +
+            (offers != null ? ",\"subscriptionOfferDetails\":" + offers : "") +
+            "}";
+
+        Constructor<ProductDetails> constructor = ProductDetails.class.getDeclaredConstructor(String.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(json);
+    }
+}
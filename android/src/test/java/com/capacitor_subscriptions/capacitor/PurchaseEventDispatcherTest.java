@@ -0,0 +1,96 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.getcapacitor.JSObject;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class PurchaseEventDispatcherTest {
+
+    private final List<JSObject> messages = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void sendsEveryEventOfAWindowInOneMessage() throws Exception {
+        PurchaseEventDispatcher dispatcher = new PurchaseEventDispatcher(messages::add, 100, new PurchaseJsonCache());
+
+        dispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.succeeded(purchase("token-1")));
+        dispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.succeeded(purchase("token-2")));
+        dispatcher.dispatch(
+            PurchaseEventDispatcher.PurchaseEvent.failed(
+                null,
+                BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.USER_CANCELED).setDebugMessage("cancelled").build()
+            )
+        );
+        awaitMessages(1);
+
+        JSObject message = messages.get(0);
+        // The top level still looks like the first event on its own
+        assertTrue(message.getBoolean("successful"));
+        assertEquals("token-1", message.getJSONObject("purchase").getString("purchaseToken"));
+
+        JSONArray purchases = message.getJSONArray("purchases");
+        assertEquals(3, purchases.length());
+        assertEquals("token-2", purchases.getJSONObject(1).getJSONObject("purchase").getString("purchaseToken"));
+        JSONObject failed = purchases.getJSONObject(2);
+        assertFalse(failed.getBoolean("successful"));
+        assertEquals(BillingClient.BillingResponseCode.USER_CANCELED, failed.getInt("errorCode"));
+        assertFalse(failed.has("purchase"));
+
+        // Nothing else went out for that window
+        Thread.sleep(200);
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void laterEventsStartANewWindow() throws Exception {
+        PurchaseEventDispatcher dispatcher = new PurchaseEventDispatcher(messages::add, 20, new PurchaseJsonCache());
+
+        dispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.succeeded(purchase("token-1")));
+        awaitMessages(1);
+        dispatcher.dispatch(PurchaseEventDispatcher.PurchaseEvent.succeeded(purchase("token-2")));
+        awaitMessages(2);
+
+        assertEquals(1, messages.get(0).getJSONArray("purchases").length());
+        assertEquals("token-2", messages.get(1).getJSONObject("purchase").getString("purchaseToken"));
+    }
+
+    @Test
+    public void eventsNeverShareAPayload() throws Exception {
+        PurchaseEventDispatcher dispatcher = new PurchaseEventDispatcher(messages::add, 50, new PurchaseJsonCache());
+        PurchaseEventDispatcher.PurchaseEvent event = PurchaseEventDispatcher.PurchaseEvent.succeeded(purchase("token-1"));
+
+        dispatcher.dispatch(event);
+        dispatcher.dispatch(event);
+        awaitMessages(1);
+
+        JSObject message = messages.get(0);
+        JSONArray purchases = message.getJSONArray("purchases");
+        assertNotSame(message, purchases.get(0));
+        assertNotSame(purchases.get(0), purchases.get(1));
+    }
+
+    private void awaitMessages(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (messages.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, messages.size());
+    }
+
+    private static Purchase purchase(String purchaseToken) throws Exception {
+        return new Purchase(
+            "{\"orderId\":\"GPA." + purchaseToken + "\",\"productId\":\"premium\",\"purchaseState\":0,\"purchaseToken\":\"" + purchaseToken + "\"}",
+            "signature"
+        );
+    }
+}
@@ -0,0 +1,69 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.Purchase;
+import org.json.JSONException;
+import org.junit.Test;
+
+public class PurchaseFlowsTest {
+
+    private static final int PURCHASED = 0;
+    private static final int PENDING = 4;
+
+    @Test
+    public void acknowledgesPurchasesWithoutFlow() throws Exception {
+        PurchaseFlows flows = new PurchaseFlows();
+
+        assertTrue(flows.shouldAcknowledge(purchase("premium", "account-1", PURCHASED)));
+    }
+
+    @Test
+    public void usesTheFlowOptionOnce() throws Exception {
+        PurchaseFlows flows = new PurchaseFlows();
+        flows.start("premium", "account-1", false);
+
+        assertFalse(flows.shouldAcknowledge(purchase("premium", "account-1", PURCHASED)));
+        // A later renewal of the same product doesn't belong to the flow anymore
+        assertTrue(flows.shouldAcknowledge(purchase("premium", "account-1", PURCHASED)));
+    }
+
+    @Test
+    public void keepsTheFlowWhilePending() throws Exception {
+        PurchaseFlows flows = new PurchaseFlows();
+        flows.start("premium", "account-1", false);
+
+        assertFalse(flows.shouldAcknowledge(purchase("premium", "account-1", PENDING)));
+        assertFalse(flows.shouldAcknowledge(purchase("premium", "account-1", PURCHASED)));
+        assertTrue(flows.shouldAcknowledge(purchase("premium", "account-1", PURCHASED)));
+    }
+
+    @Test
+    public void keepsOverlappingFlowsApart() throws Exception {
+        PurchaseFlows flows = new PurchaseFlows();
+        flows.start("premium", "account-1", false);
+        flows.start("premium", "account-2", true);
+        flows.start("basic", null, false);
+
+        assertTrue(flows.shouldAcknowledge(purchase("premium", "account-2", PURCHASED)));
+        assertFalse(flows.shouldAcknowledge(purchase("premium", "account-1", PURCHASED)));
+        assertFalse(flows.shouldAcknowledge(purchase("basic", null, PURCHASED)));
+    }
+
+    private static Purchase purchase(String productId, String accountId, int purchaseState) throws JSONException {
+        String json =
+            "{\"orderId\":\"GPA.0000-0000\",\"packageName\":\"" +
+            FakeBillingGateway.PACKAGE_NAME +
+            "\",\"productId\":\"" +
+            productId +
+            "\",\"purchaseTime\":1700000000000,\"purchaseState\":" +
+            purchaseState +
+            ",\"purchaseToken\":\"token-" +
+            productId +
+            "\"" +
+            (accountId != null ? ",\"obfuscatedAccountId\":\"" + accountId + "\"" : "") +
+            ",\"acknowledged\":false}";
+        return new Purchase(json, "signature");
+    }
+}
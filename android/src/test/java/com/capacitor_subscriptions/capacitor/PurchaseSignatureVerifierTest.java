@@ -0,0 +1,104 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.Purchase;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PurchaseSignatureVerifierTest {
+
+    private static final PurchaseSignatureVerifier.Base64Decoder BASE64 = value -> Base64.getDecoder().decode(value);
+
+    private static KeyPair playKey;
+    private static KeyPair otherKey;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        playKey = generator.generateKeyPair();
+        otherKey = generator.generateKeyPair();
+    }
+
+    @Test
+    public void everythingPassesWithoutAKey() throws Exception {
+        PurchaseSignatureVerifier verifier = new PurchaseSignatureVerifier(null, BASE64);
+        List<Purchase> purchases = Collections.singletonList(new Purchase(json("token-1"), ""));
+
+        assertFalse(verifier.isEnabled());
+        assertTrue(verifier.verify(purchases.get(0)));
+        assertSame(purchases, verifier.filter(purchases));
+    }
+
+    @Test
+    public void invalidKeysTurnVerificationOff() {
+        assertFalse(new PurchaseSignatureVerifier("not a key", BASE64).isEnabled());
+    }
+
+    @Test
+    public void acceptsPurchasesSignedByPlay() throws Exception {
+        PurchaseSignatureVerifier verifier = verifier();
+        Purchase purchase = signed(json("token-1"), playKey.getPrivate());
+
+        assertTrue(verifier.isEnabled());
+        assertTrue(verifier.verify(purchase));
+        // Answered from the remembered signature the second time
+        assertTrue(verifier.verify(purchase));
+    }
+
+    @Test
+    public void rejectsForgedPurchases() throws Exception {
+        PurchaseSignatureVerifier verifier = verifier();
+        Purchase genuine = signed(json("token-1"), playKey.getPrivate());
+
+        assertFalse(verifier.verify(signed(json("token-2"), otherKey.getPrivate())));
+        // Genuine signature, but on different JSON
+        assertFalse(verifier.verify(new Purchase(json("token-2"), genuine.getSignature())));
+        assertFalse(verifier.verify(new Purchase(json("token-3"), "")));
+    }
+
+    @Test
+    public void rememberedTokensAreCheckedAgainWithANewSignature() throws Exception {
+        PurchaseSignatureVerifier verifier = verifier();
+        assertTrue(verifier.verify(signed(json("token-1"), playKey.getPrivate())));
+
+        assertFalse(verifier.verify(signed(json("token-1"), otherKey.getPrivate())));
+    }
+
+    @Test
+    public void filterDropsInvalidPurchases() throws Exception {
+        PurchaseSignatureVerifier verifier = verifier();
+        Purchase genuine = signed(json("token-1"), playKey.getPrivate());
+        Purchase forged = signed(json("token-2"), otherKey.getPrivate());
+
+        assertEquals(Collections.singletonList(genuine), verifier.filter(Arrays.asList(genuine, forged)));
+    }
+
+    private static PurchaseSignatureVerifier verifier() {
+        return new PurchaseSignatureVerifier(Base64.getEncoder().encodeToString(playKey.getPublic().getEncoded()), BASE64);
+    }
+
+    private static Purchase signed(String json, PrivateKey key) throws Exception {
+        Signature signature = Signature.getInstance("SHA1withRSA");
+        signature.initSign(key);
+        signature.update(json.getBytes(StandardCharsets.UTF_8));
+        return new Purchase(json, Base64.getEncoder().encodeToString(signature.sign()));
+    }
+
+    private static String json(String purchaseToken) {
+        return "{\"orderId\":\"GPA." + purchaseToken + "\",\"productId\":\"premium\",\"purchaseState\":0,\"purchaseToken\":\"" + purchaseToken + "\"}";
+    }
+}
@@ -0,0 +1,112 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class PurchaseStoreTest {
+
+    private FakeBillingGateway billing;
+
+    @After
+    public void tearDown() {
+        if (billing != null) {
+            billing.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentReadsShareOneQuery() throws Exception {
+        PurchaseStore store = store(new FakeBillingGateway.Options().latency(50, 50).purchases(3), 60000);
+        List<PurchaseIndex> results = new CopyOnWriteArrayList<>();
+        CountDownLatch answered = new CountDownLatch(10);
+
+        for (int i = 0; i < 10; i++) {
+            store.query((billingResult, purchases) -> {
+                results.add(purchases);
+                answered.countDown();
+            });
+        }
+
+        assertTrue(answered.await(5, TimeUnit.SECONDS));
+        // One query per product type, shared by all ten callers
+        assertEquals(2, billing.purchaseQueries.get());
+        for (PurchaseIndex purchases : results) {
+            assertSame(results.get(0), purchases);
+        }
+        assertEquals(3, results.get(0).getPurchases().size());
+        assertSame(results.get(0), store.getIndex());
+    }
+
+    @Test
+    public void answersFromTheSnapshotWithinTheTtl() throws Exception {
+        PurchaseStore store = store(new FakeBillingGateway.Options().latency(1, 1).purchases(3), 60000);
+        PurchaseIndex first = query(store);
+
+        // Answered right away, without going to Play again
+        List<PurchaseIndex> results = new CopyOnWriteArrayList<>();
+        store.query((billingResult, purchases) -> results.add(purchases));
+        assertEquals(1, results.size());
+        assertSame(first, results.get(0));
+        assertEquals(2, billing.purchaseQueries.get());
+
+        store.invalidate();
+        assertNotNull(query(store));
+        assertEquals(4, billing.purchaseQueries.get());
+    }
+
+    @Test
+    public void refreshesOnceTheTtlRanOut() throws Exception {
+        PurchaseStore store = store(new FakeBillingGateway.Options().latency(1, 1).purchases(3), 0);
+
+        query(store);
+        query(store);
+
+        assertEquals(4, billing.purchaseQueries.get());
+    }
+
+    @Test
+    public void neverKeepsFailedQueries() throws Exception {
+        PurchaseStore store = store(
+            new FakeBillingGateway.Options().latency(1, 1).purchases(3).errors(1, BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE),
+            60000
+        );
+        BillingResult[] result = new BillingResult[1];
+        CountDownLatch answered = new CountDownLatch(1);
+        store.query((billingResult, purchases) -> {
+            result[0] = billingResult;
+            answered.countDown();
+        });
+        assertTrue(answered.await(5, TimeUnit.SECONDS));
+        assertEquals(BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE, result[0].getResponseCode());
+
+        query(store);
+        assertEquals(4, billing.purchaseQueries.get());
+    }
+
+    private PurchaseStore store(FakeBillingGateway.Options options, long snapshotTtlMs) throws Exception {
+        billing = new FakeBillingGateway(options);
+        return new PurchaseStore(billing, snapshotTtlMs, new Metrics(), new PurchaseSignatureVerifier(null));
+    }
+
+    private static PurchaseIndex query(PurchaseStore store) throws Exception {
+        PurchaseIndex[] result = new PurchaseIndex[1];
+        CountDownLatch answered = new CountDownLatch(1);
+        store.query((billingResult, purchases) -> {
+            result[0] = purchases;
+            answered.countDown();
+        });
+        assertTrue("Purchases were never answered", answered.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+}
@@ -0,0 +1,269 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.BillingClient;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Drives thousands of concurrent plugin calls through a complete Subscriptions instance, backed by the fake
+// Play Billing and the local verification stub, and reports the latency every method saw from call to resolve.
+// android.util.JsonReader is only a stub here, the verification responses are read by the stub server's org.json parser
+public class SubscriptionsLoadTest {
+
+    private static final int CALLS = 5000;
+    private static final int CALLER_THREADS = 32;
+    private static final int PRODUCTS = 50;
+
+    private File storageDirectory;
+    private FakeBillingGateway billing;
+    private VerificationStubServer verification;
+    private Subscriptions subscriptions;
+
+    @Before
+    public void setUp() throws Exception {
+        storageDirectory = Files.createTempDirectory("capacitor-subscriptions").toFile();
+        billing = new FakeBillingGateway(
+            new FakeBillingGateway.Options()
+                .latency(2, 30)
+                .errors(0.01, BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE)
+                .products(PRODUCTS)
+                .purchases(200)
+        );
+        verification = new VerificationStubServer(1, 10, 0.02);
+
+        SubscriptionsConfig config = SubscriptionsConfig.builder()
+            .verificationTimeoutMs(2000)
+            .verificationConcurrency(16)
+            .billingQueueTimeoutMs(30000)
+            // Idle startup needs the main Looper, which doesn't exist here
+            .startupMode(SubscriptionsConfig.STARTUP_EAGER)
+            .hedging(true)
+            // The stub fails 2% of the requests on purpose, the default breaker threshold must not open on that.
+            // The fake purchases aren't signed, so playPublicKey stays unset
+            .build();
+
+        subscriptions = new Subscriptions(
+            null,
+            storageDirectory,
+            billing,
+            VerificationStubServer.RESPONSE_PARSER,
+            config,
+            new StartupTimings(config.startupMode)
+        );
+        subscriptions.setApiVerificationDetails(verification.getEndpoint(), "test-jwt", FakeBillingGateway.productId(0));
+    }
+
+    @After
+    public void tearDown() {
+        verification.close();
+        billing.shutdown();
+        deleteRecursively(storageDirectory);
+    }
+
+    @Test
+    public void thousandsOfConcurrentCalls() throws Exception {
+        String[] methods = new String[CALLS];
+        long[] latencies = new long[CALLS];
+        int[] responseCodes = new int[CALLS];
+        CountDownLatch resolved = new CountDownLatch(CALLS);
+        ExecutorService callers = Executors.newFixedThreadPool(CALLER_THREADS);
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            int index = i;
+            callers.execute(() -> {
+                long callStartedAt = System.nanoTime();
+                String method = pickMethod(index);
+                TestPluginCall call = new TestPluginCall(
+                    "call-" + index,
+                    method,
+                    (resolvedCall, response) -> {
+                        latencies[index] = System.nanoTime() - callStartedAt;
+                        methods[index] = method;
+                        Integer responseCode = response.getInteger("responseCode");
+                        responseCodes[index] = responseCode != null ? responseCode : 0;
+                        resolved.countDown();
+                    }
+                );
+                dispatch(method, index, call);
+            });
+        }
+
+        boolean finished = resolved.await(5, TimeUnit.MINUTES);
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        callers.shutdownNow();
+
+        assertTrue("Only " + (CALLS - resolved.getCount()) + " of " + CALLS + " calls resolved", finished);
+        report(methods, latencies, responseCodes, totalMs);
+
+        // Every purchase query after the first few joins an in-flight one or is answered from the snapshot
+        assertTrue("Too many purchase queries: " + billing.purchaseQueries.get(), billing.purchaseQueries.get() < CALLS / 5);
+        assertEquals(0, countCode(responseCodes, 503));
+        // Every verification request belongs to the trace of the call which set it off
+        assertEquals(0, verification.untracedRequests.get());
+        assertEquals(SubscriptionsConfig.DEFAULT_TRACE_BUFFER_SIZE, subscriptions.getTraces().optJSONArray("traces").length());
+        // The expiry dates really were read from the responses, and the plugin's own metrics measured something
+        assertTrue(subscriptions.getExpiryCacheStats().optLong("size") > 0);
+        JSObject metrics = subscriptions.getMetrics();
+        assertTrue(metrics.optJSONObject("stages").optJSONObject("verification").optLong("count") > 0);
+        assertTrue(metrics.optJSONObject("methods").optJSONObject("getCurrentEntitlements").optLong("max") > 0);
+    }
+
+    // Roughly what a paywall-heavy app does: mostly product and entitlement lookups, a few full entitlement syncs
+    private static String pickMethod(int index) {
+        switch (index % 10) {
+            case 0:
+            case 1:
+            case 2:
+                return "getProductDetails";
+            case 3:
+                return "getProductsDetails";
+            case 4:
+            case 5:
+            case 6:
+                return "hasEntitlement";
+            case 7:
+                return "getLatestTransaction";
+            case 8:
+                return index % 50 == 8 ? "getCurrentEntitlements" : "getCachedEntitlements";
+            default:
+                return "purchaseProduct";
+        }
+    }
+
+    private void dispatch(String method, int index, TestPluginCall call) {
+        String productIdentifier = FakeBillingGateway.productId(index % PRODUCTS);
+
+        switch (method) {
+            case "getProductDetails":
+                subscriptions.getProductDetails(productIdentifier, null, call);
+                break;
+            case "getProductsDetails":
+                List<String> productIdentifiers = new ArrayList<>();
+                for (int i = 0; i < 30; i++) {
+                    productIdentifiers.add(FakeBillingGateway.productId((index + i) % PRODUCTS));
+                }
+                subscriptions.getProductsDetails(productIdentifiers, null, call);
+                break;
+            case "hasEntitlement":
+                subscriptions.hasEntitlement(productIdentifier, call);
+                break;
+            case "getLatestTransaction":
+                subscriptions.getLatestTransaction(productIdentifier, call);
+                break;
+            case "getCurrentEntitlements":
+                subscriptions.getCurrentEntitlements(call);
+                break;
+            case "getCachedEntitlements":
+                subscriptions.getCachedEntitlements(call);
+                break;
+            default:
+                subscriptions.purchaseProduct(productIdentifier, "account-" + index, null, null, null, call);
+                break;
+        }
+    }
+
+    private void report(String[] methods, long[] latencies, int[] responseCodes, long totalMs) {
+        Map<String, List<Long>> byMethod = new TreeMap<>();
+        for (int i = 0; i < CALLS; i++) {
+            List<Long> values = byMethod.get(methods[i]);
+            if (values == null) {
+                values = new ArrayList<>();
+                byMethod.put(methods[i], values);
+            }
+            values.add(latencies[i]);
+        }
+
+        System.out.println(
+            "Load test: " + CALLS + " calls from " + CALLER_THREADS + " threads in " + totalMs + "ms (" + (CALLS * 1000L / Math.max(1, totalMs)) + " calls/s)"
+        );
+        System.out.println(String.format("%-24s %7s %9s %9s %9s", "method", "calls", "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, List<Long>> entry : byMethod.entrySet()) {
+            printRow(entry.getKey(), entry.getValue());
+        }
+
+        List<Long> all = new ArrayList<>();
+        for (long latency : latencies) {
+            all.add(latency);
+        }
+        printRow("all", all);
+
+        Map<Integer, Integer> codes = new TreeMap<>();
+        for (int responseCode : responseCodes) {
+            Integer count = codes.get(responseCode);
+            codes.put(responseCode, count == null ? 1 : count + 1);
+        }
+        System.out.println("Response codes: " + codes);
+        System.out.println(
+            "Fake billing: " +
+            billing.productQueries.get() +
+            " product queries, " +
+            billing.purchaseQueries.get() +
+            " purchase queries. Verification stub: " +
+            verification.requests.get() +
+            " requests"
+        );
+
+        JSObject metrics = subscriptions.getMetrics();
+        System.out.println("Plugin metrics: " + metrics);
+    }
+
+    private static void printRow(String method, List<Long> latencies) {
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+
+        System.out.println(
+            String.format(
+                "%-24s %7d %9.1f %9.1f %9.1f",
+                method,
+                sorted.length,
+                percentile(sorted, 0.50),
+                percentile(sorted, 0.99),
+                sorted[sorted.length - 1] / 1e6
+            )
+        );
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private static int countCode(int[] responseCodes, int responseCode) {
+        int count = 0;
+        for (int code : responseCodes) {
+            if (code == responseCode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
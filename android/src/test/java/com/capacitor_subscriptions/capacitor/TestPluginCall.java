@@ -0,0 +1,34 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+// A PluginCall which isn't connected to a bridge, the response is handed to the test instead
+class TestPluginCall extends PluginCall {
+
+    interface Listener {
+        void onResolved(TestPluginCall call, JSObject response);
+    }
+
+    private final Listener listener;
+
+    TestPluginCall(String callbackId, String methodName, Listener listener) {
+        super(null, "Subscriptions", callbackId, methodName, new JSObject());
+        this.listener = listener;
+    }
+
+    @Override
+    public void resolve(JSObject data) {
+        listener.onResolved(this, data);
+    }
+
+    @Override
+    public void resolve() {
+        resolve(new JSObject());
+    }
+
+    @Override
+    public void reject(String msg) {
+        resolve(new JSObject().put("responseCode", -2).put("responseMessage", msg));
+    }
+}
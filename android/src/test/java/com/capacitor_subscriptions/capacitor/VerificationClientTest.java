@@ -0,0 +1,128 @@
+package com.capacitor_subscriptions.capacitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VerificationClientTest {
+
+    private VerificationStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new VerificationStubServer(0, 0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void readsTheExpiryDate() throws Exception {
+        VerificationClient client = client(SubscriptionsConfig.builder());
+
+        assertEquals(VerificationStubServer.EXPIRY_DATE, verify(client, "GPA.1"));
+        assertEquals(1, client.getStatus().optLong("requests"));
+        assertEquals(0, client.getStatus().optLong("failureRate"));
+    }
+
+    @Test
+    public void responsesWithoutAnExpiryDateCountAsFailures() throws Exception {
+        VerificationClient client = client(SubscriptionsConfig.builder().breakerThresholdPercent(50));
+        server.responseBody = "{\"status\":\"ok\"}";
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(verify(client, "GPA." + i));
+        }
+        // Truncated, the 200 has already been sent by then
+        server.responseBody = "{\"expiryDate\":\"2030-01-";
+        for (int i = 5; i < 10; i++) {
+            assertNull(verify(client, "GPA." + i));
+        }
+
+        assertEquals(CircuitBreaker.OPEN, client.getStatus().getString("state"));
+        assertFalse(client.isAvailable());
+    }
+
+    @Test
+    public void escapesTheTransactionId() throws Exception {
+        VerificationClient client = client(SubscriptionsConfig.builder());
+
+        assertEquals(VerificationStubServer.EXPIRY_DATE, verify(client, "GPA.\"1\\"));
+        assertEquals("GPA.\"1\\", new JSONObject(server.lastRequestBody).getString("transaction_id"));
+    }
+
+    @Test
+    public void abortsRequestsAfterTheRequestTimeout() throws Exception {
+        server.close();
+        // Far beyond the request timeout, and the read timeout alone would wait for it
+        server = new VerificationStubServer(5000, 5000, 0);
+        VerificationClient client = client(SubscriptionsConfig.builder().readTimeoutMs(10000).requestTimeoutMs(200));
+
+        long startedAt = System.nanoTime();
+        assertNull(verify(client, "GPA.1"));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 2000);
+        assertEquals(100, client.getStatus().optLong("failureRate"));
+    }
+
+    @Test
+    public void hedgesRequestsSlowerThanTheP95() throws Exception {
+        VerificationClient client = client(SubscriptionsConfig.builder().hedging(true));
+        // No hedges until the p95 is based on enough requests
+        for (int i = 0; i < 20; i++) {
+            verify(client, "GPA." + i);
+        }
+        assertEquals(0, client.getStatus().optLong("hedgesSent"));
+
+        server.stallNextMs.set(3000);
+        long startedAt = System.nanoTime();
+        assertEquals(VerificationStubServer.EXPIRY_DATE, verify(client, "GPA.20"));
+
+        // Whichever of the two got stalled, the other one answered long before
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 2000);
+        assertEquals(1, client.getStatus().optLong("hedgesSent"));
+        assertEquals(22, server.requests.get());
+    }
+
+    @Test
+    public void neverHedgesWhenDisabled() throws Exception {
+        VerificationClient client = client(SubscriptionsConfig.builder().hedging(false));
+        for (int i = 0; i < 20; i++) {
+            verify(client, "GPA." + i);
+        }
+
+        server.stallNextMs.set(500);
+        assertEquals(VerificationStubServer.EXPIRY_DATE, verify(client, "GPA.20"));
+
+        assertEquals(0, client.getStatus().optLong("hedgesSent"));
+        assertEquals(21, server.requests.get());
+    }
+
+    private VerificationClient client(SubscriptionsConfig.Builder config) {
+        VerificationClient client = new VerificationClient(config.build(), new Metrics(), VerificationStubServer.RESPONSE_PARSER);
+        client.setCredentials(server.getEndpoint(), "test-jwt");
+        return client;
+    }
+
+    private static String verify(VerificationClient client, String transactionId) throws Exception {
+        AtomicReference<String> result = new AtomicReference<>();
+        CountDownLatch answered = new CountDownLatch(1);
+        client.verify(transactionId, new Tracer(1).start("verify"), (id, expiryDate) -> {
+            result.set(expiryDate);
+            answered.countDown();
+        });
+        assertTrue("Verification never answered", answered.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
@@ -0,0 +1,111 @@
+package com.capacitor_subscriptions.capacitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+// Local stand-in for the app's verification endpoint (see setApiVerificationDetails). Answers every transaction
+// with the same expiry date after a random delay, a configurable share of requests fails with a 500
+class VerificationStubServer implements Closeable {
+
+    static final String EXPIRY_DATE = "2030-01-01 00:00:00";
+
+    // android.util.JsonReader is only a stub in JVM tests, this reads the responses with the real org.json instead
+    static final VerificationClient.ResponseParser RESPONSE_PARSER = body -> {
+        try {
+            Object expiryDate = new JSONObject(new JSONTokener(body)).opt("expiryDate");
+            return expiryDate instanceof String ? (String) expiryDate : null;
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    };
+
+    final AtomicInteger requests = new AtomicInteger();
+    // Requests which came without an X-Trace-Id header
+    final AtomicInteger untracedRequests = new AtomicInteger();
+    // Replaces the expiry date answer with a 200 carrying this body, e.g. one without an expiryDate
+    volatile String responseBody;
+    volatile String lastRequestBody;
+    // The next request sleeps this much longer than usual
+    final AtomicLong stallNextMs = new AtomicLong();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(32);
+    private final Random random = new Random(7);
+    private final long minLatencyMs;
+    private final long maxLatencyMs;
+    private final double errorRate;
+
+    VerificationStubServer(long minLatencyMs, long maxLatencyMs, double errorRate) throws IOException {
+        this.minLatencyMs = minLatencyMs;
+        this.maxLatencyMs = maxLatencyMs;
+        this.errorRate = errorRate;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/verify", this::handle);
+        server.start();
+    }
+
+    String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/verify";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (exchange.getRequestHeaders().getFirst("X-Trace-Id") == null) {
+            untracedRequests.incrementAndGet();
+        }
+
+        // The stub answers every transaction the same way, the body is only kept for the tests to look at
+        ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                requestBody.write(buffer, 0, read);
+            }
+        }
+        lastRequestBody = new String(requestBody.toByteArray(), StandardCharsets.UTF_8);
+
+        long spread = Math.max(0, maxLatencyMs - minLatencyMs);
+        try {
+            Thread.sleep(minLatencyMs + (spread > 0 ? (long) (random.nextDouble() * spread) : 0) + stallNextMs.getAndSet(0));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean fail = errorRate > 0 && random.nextDouble() < errorRate;
+        String override = responseBody;
+        byte[] body = (fail ? "{\"error\":\"stub failure\"}" : override != null ? override : "{\"expiryDate\":\"" + EXPIRY_DATE + "\"}").getBytes(
+            StandardCharsets.UTF_8
+        );
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
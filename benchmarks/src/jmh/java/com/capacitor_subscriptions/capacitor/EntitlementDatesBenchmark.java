@@ -0,0 +1,82 @@
+package com.capacitor_subscriptions.capacitor;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// One operation formats (or normalises) the dates of every purchase a user owns
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EntitlementDatesBenchmark {
+
+    @Param({ "1", "20", "200" })
+    public int purchaseCount;
+
+    private long[] purchaseTimes;
+    private String[] expiryDates;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        SimpleDateFormat expiryFormat = new SimpleDateFormat(DateFormats.EXPIRY_DATE_PATTERN, Locale.getDefault());
+        long now = System.currentTimeMillis();
+
+        purchaseTimes = new long[purchaseCount];
+        expiryDates = new String[purchaseCount];
+        for (int i = 0; i < purchaseCount; i++) {
+            purchaseTimes[i] = now - (long) (random.nextDouble() * 365L * 24 * 60 * 60 * 1000);
+            expiryDates[i] = expiryFormat.format(new Date(purchaseTimes[i] + 30L * 24 * 60 * 60 * 1000));
+        }
+    }
+
+    // What buildEntitlements used to do for every purchase
+    @Benchmark
+    public void startDatesPerCall(Blackhole blackhole) {
+        for (long purchaseTime : purchaseTimes) {
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(DateFormats.START_DATE_PATTERN, Locale.getDefault());
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(Long.parseLong((String.valueOf(purchaseTime))));
+            blackhole.consume(simpleDateFormat.format(calendar.getTime()));
+        }
+    }
+
+    @Benchmark
+    public void startDatesCached(Blackhole blackhole) {
+        for (long purchaseTime : purchaseTimes) {
+            blackhole.consume(DateFormats.formatStartDate(purchaseTime));
+        }
+    }
+
+    // VerificationClient normalised every expiryDate with a new formatter, then ExpiryCache parsed it with another one
+    @Benchmark
+    public void expiryDatesPerCall(Blackhole blackhole) throws ParseException {
+        for (String expiryDate : expiryDates) {
+            SimpleDateFormat normaliseFormat = new SimpleDateFormat(DateFormats.EXPIRY_DATE_PATTERN, Locale.getDefault());
+            String normalised = normaliseFormat.format(normaliseFormat.parse(expiryDate));
+            Date parsed = new SimpleDateFormat(DateFormats.EXPIRY_DATE_PATTERN, Locale.getDefault()).parse(normalised);
+            blackhole.consume(parsed.getTime());
+        }
+    }
+
+    @Benchmark
+    public void expiryDatesCached(Blackhole blackhole) {
+        for (String expiryDate : expiryDates) {
+            String normalised = DateFormats.normaliseExpiryDate(expiryDate);
+            blackhole.consume(DateFormats.parseExpiryDate(normalised));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.capacitor_subscriptions.capacitor;
+
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// One operation turns the original JSON of every purchase into the object handed to the bridge, like a restore
+// does with its purchase events. Capacitor's JSObject is a JSONObject, parsing costs the same
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PurchaseJsonBenchmark {
+
+    @Param({ "1", "20", "200" })
+    public int purchaseCount;
+
+    private String[] purchaseTokens;
+    private String[] originalJson;
+    private PurchaseJsonCache purchaseJsonCache;
+
+    @Setup
+    public void setUp() throws JSONException {
+        purchaseTokens = new String[purchaseCount];
+        originalJson = new String[purchaseCount];
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < purchaseCount; i++) {
+            // Play's purchase tokens are opaque strings of about 150 characters
+            StringBuilder token = new StringBuilder("token-" + i + "-");
+            while (token.length() < 150) {
+                token.append("abcdefghijklmnopqrstuvwxyz0123456789");
+            }
+            purchaseTokens[i] = token.substring(0, 150);
+
+            originalJson[i] = new JSONObject()
+                .put("orderId", "GPA.3345-1234-5678-" + String.format("%05d", i))
+                .put("packageName", "com.example.subscriptions")
+                .put("productId", "product." + (i % 20))
+                .put("purchaseTime", now - i * 86400000L)
+                .put("purchaseState", 0)
+                .put("purchaseToken", purchaseTokens[i])
+                .put("obfuscatedAccountId", "account-" + i)
+                .put("quantity", 1)
+                .put("autoRenewing", true)
+                .put("acknowledged", true)
+                .toString();
+        }
+
+        purchaseJsonCache = new PurchaseJsonCache();
+        for (int i = 0; i < purchaseCount; i++) {
+            purchaseJsonCache.get(purchaseTokens[i], originalJson[i]);
+        }
+    }
+
+    // What getLatestTransaction and every purchase event used to do
+    @Benchmark
+    public void purchaseJsonReparse(Blackhole blackhole) throws JSONException {
+        for (String json : originalJson) {
+            blackhole.consume(new JSONObject(json));
+        }
+    }
+
+    // Play returns new String instances for the same purchase on every query, so the cache has to compare them
+    @Benchmark
+    public void purchaseJsonCached(Blackhole blackhole) throws JSONException {
+        for (int i = 0; i < purchaseCount; i++) {
+            blackhole.consume(purchaseJsonCache.get(purchaseTokens[i], new String(originalJson[i])));
+        }
+    }
+}
@@ -9,27 +9,95 @@ export interface SubscriptionsPlugin {
   /**
    * Receives a product ID and returns the product details
    * @param options.productId The product ID to lookup
+   * @param options.productType Android only - limits the lookup to subscriptions or one-time products, by default both are searched
    */
-  getProductDetails(options: { productIdentifier: string }): Promise< ProductDetailsResponse >;
+  getProductDetails(options: { productIdentifier: string, productType?: ProductType }): Promise< ProductDetailsResponse >;
+
+  /**
+   * Android only - batch variant of getProductDetails(...), returns the details of every given product keyed by
+   * its product ID. Products which could not be found carry their own responseCode
+   * @param options.productIdentifiers the product IDs to lookup
+   * @param options.productType limits the lookup to subscriptions or one-time products, by default both are searched
+   */
+  getProductsDetails(options: { productIdentifiers: string[], productType?: ProductType }): Promise<ProductsDetailsResponse>;
+
+  /**
+   * Android only - loads the details of the given products in the background, so later calls to
+   * getProductDetails(...) and purchaseProduct(...) can be answered without waiting for Google Play
+   * @param options.productIdentifiers the product IDs to load
+   * @param options.productType limits the lookup to subscriptions or one-time products, by default both are searched
+   */
+  prefetchProducts(options: { productIdentifiers: string[], productType?: ProductType }): Promise<PrefetchProductsResponse>;
 
   /**
    * Receives the product ID which the user wants to purchase and returns the transaction ID
    * @param options.productId contains the productIdentifier
+   * @param options.offerId Android only - the subscription offer to buy, as listed in the product's offers
+   * @param options.basePlanId Android only - the base plan to buy, or the base plan offerId belongs to
+   * @param options.offerTag Android only - buy the first offer carrying this tag, ignored when offerId is given
    */
   purchaseProduct(options: {
     productIdentifier: string,
     accountId?: string,
-    acknowledgePurchases?: boolean
+    acknowledgePurchases?: boolean,
+    offerId?: string,
+    basePlanId?: string,
+    offerTag?: string
 }): Promise<PurchaseProductResponse>;
 
-getCurrentEntitlements(options: { sync?: boolean }): Promise<CurrentEntitlementsResponse>;
+/**
+ * @param options.stream Android only - instead of resolving with all entitlements at once, fire ENTITLEMENTS-PAGE
+ * events carrying them in pages while they are verified. The call then resolves with a summary only
+ * @param options.pageSize Android only - the maximum number of entitlements per page when streaming, defaults to 20
+ */
+getCurrentEntitlements(options: { sync?: boolean, stream?: boolean, pageSize?: number }): Promise<CurrentEntitlementsResponse>;
+
+/**
+ * Android only - answers instantly with the entitlements stored by the last getCurrentEntitlements(...) call,
+ * even before Google Play is connected. The plugin revalidates them in the background and fires an
+ * ENTITLEMENTS-CHANGED event if they turn out to be different
+ */
+getCachedEntitlements(): Promise<CachedEntitlementsResponse>;
 
 getLatestTransaction(options: { productIdentifier: string }): Promise<LatestTransactionResponse>;
 
+/**
+ * Android only - answers from the purchases the plugin already knows about, without a round trip to Google Play
+ * @param options.productIdentifier the product ID to check
+ */
+hasEntitlement(options: { productIdentifier: string }): Promise<HasEntitlementResponse>;
+
 refundLatestTransaction(options: { productIdentifier: string }): Promise<RefundLatestTransactionResponse>;
 
 manageSubscriptions(): any;
 
+/**
+ * Android only - latency histograms and response code counts of every plugin method and of the stages
+ * behind them (connecting to Google Play, product and purchase queries, verification requests, acknowledgements)
+ */
+getMetrics(): Promise<MetricsResponse>;
+
+/**
+ * Android only - how much time the plugin took during app startup, see the startupMode configuration
+ */
+getStartupMetrics(): Promise<StartupMetricsResponse>;
+
+/**
+ * Android only - hit/miss counters of the cache holding verified expiry dates
+ */
+getExpiryCacheStats(): Promise<ExpiryCacheStatsResponse>;
+
+/**
+ * Android only - state of the circuit breaker in front of the verification endpoint, see verificationBreakerThreshold
+ */
+getVerificationStatus(): Promise<VerificationStatusResponse>;
+
+/**
+ * Android only - the most recent plugin calls (see traceBufferSize) with a timeline of the Google Play and
+ * verification requests each of them made, oldest first
+ */
+getTraces(): Promise<TracesResponse>;
+
 setGoogleVerificationDetails(options: { googleVerifyEndpoint: string, productId: string }): void;
 
 addListener(
@@ -37,15 +105,92 @@ addListener(
     listenerFunc: (response: AndroidPurchasedTrigger) => void,
 ): Promise<PluginListenerHandle>;
 
+addListener(
+    eventName: 'ENTITLEMENTS-CHANGED',
+    listenerFunc: (response: EntitlementsChangedEvent) => void,
+): Promise<PluginListenerHandle>;
+
+/**
+ * Android only - fired after a refresh of the entitlements (a getCurrentEntitlements(...) call, a background refresh
+ * or a revalidation) found entitlements which were added, renewed or expired since the previous one
+ */
+addListener(
+    eventName: 'ENTITLEMENTS-DIFF',
+    listenerFunc: (response: EntitlementsDiffEvent) => void,
+): Promise<PluginListenerHandle>;
+
+/**
+ * Android only - the pages of a getCurrentEntitlements({ stream: true }) call
+ */
+addListener(
+    eventName: 'ENTITLEMENTS-PAGE',
+    listenerFunc: (response: EntitlementsPageEvent) => void,
+): Promise<PluginListenerHandle>;
+
+/**
+ * Android only - fired whenever the verification circuit breaker changes its state
+ */
+addListener(
+    eventName: 'VERIFICATION-STATUS',
+    listenerFunc: (response: VerificationStatusResponse) => void,
+): Promise<PluginListenerHandle>;
+
+/**
+ * Android only - fired every metricsInterval milliseconds when that option is configured
+ */
+addListener(
+    eventName: 'METRICS',
+    listenerFunc: (response: MetricsResponse) => void,
+): Promise<PluginListenerHandle>;
+
 }
 
 // Response data types
 
+/**
+ * Android only - subscriptions ("subs") or one-time products ("inapp")
+ */
+export type ProductType = "subs" | "inapp"
+
 export interface Product {
   productIdentifier: string;
   price: string;
   displayName: string;
   description: string;
+  /**
+   * Android only
+   */
+  productType?: ProductType;
+  /**
+   * Android only - every offer of a subscription, in the order Google Play returned them. price is the first
+   * pricing phase of the first offer
+   */
+  offers?: SubscriptionOffer[];
+}
+
+export interface SubscriptionOffer {
+  basePlanId: string;
+  /**
+   * Not set for the base plan itself
+   */
+  offerId?: string;
+  offerTags: string[];
+  pricingPhases: PricingPhase[];
+}
+
+export interface PricingPhase {
+  formattedPrice: string;
+  priceAmountMicros: number;
+  priceCurrencyCode: string;
+  /**
+   * ISO 8601 duration, e.g. "P1M"
+   */
+  billingPeriod: string;
+  billingCycleCount: number;
+  /**
+   * 1 infinite recurring, 2 finite recurring, 3 non recurring
+   */
+  recurrenceMode: number;
 }
 
 export interface Transaction {
@@ -58,13 +203,28 @@ export interface Transaction {
   productId: string;
   jws?: string;
   purchaseToken?: string;
+  /**
+   * Android only - one-time products never expire, their expiryDate is always null
+   */
+  productType?: ProductType;
+  /**
+   * Android only - true when the expiry date could not be verified before the verification timeout passed
+   */
+  partial?: boolean;
+}
+
+export interface TracedResponse {
+  /**
+   * Android only - identifies the call in getTraces(), its verification requests carry it in an X-Trace-Id header
+   */
+  traceId?: string;
 }
 
 // latestTransactions interface and types
 
-export interface LatestTransactionResponse {
-	responseCode: LatestTransactionResponseCode,
-	responseMessage: LatestTransactionResponseMessage,
+export interface LatestTransactionResponse extends TracedResponse {
+	responseCode: LatestTransactionResponseCode | BillingConnectionResponseCode,
+	responseMessage: LatestTransactionResponseMessage | BillingConnectionResponseMessage,
 	data?: Transaction
 }
 
@@ -91,24 +251,106 @@ export type RefundLatestTransactionResponseMessage = "Incompatible with web" |
 
 // currentEntitlements interface and types
 
-export interface CurrentEntitlementsResponse {
-	responseCode: CurrentEntitlementsResponseCode,
-	responseMessage: CurrentEntitlementsResponseMessage,
-	data?: Transaction[]
+export interface CurrentEntitlementsResponse extends TracedResponse {
+	responseCode: CurrentEntitlementsResponseCode | BillingConnectionResponseCode,
+	responseMessage: CurrentEntitlementsResponseMessage | BillingConnectionResponseMessage,
+	data?: Transaction[],
+	/**
+	 * Only set for streaming calls, which deliver the entitlements themselves through ENTITLEMENTS-PAGE events
+	 */
+	summary?: EntitlementsStreamSummary
 }
 
 export type CurrentEntitlementsResponseCode = -1 | 0 | 1 | 2
 export type CurrentEntitlementsResponseMessage =
 "Incompatible with web" |
 "Successfully found all entitlements across all product types" |
+"Successfully streamed all entitlements across all product types" |
 "No entitlements were found" |
 "Unknown problem trying to retrieve entitlements"
 
+export interface CachedEntitlementsResponse extends TracedResponse {
+  responseCode: CachedEntitlementsResponseCode;
+  responseMessage: CachedEntitlementsResponseMessage;
+  data?: Transaction[];
+  /**
+   * Milliseconds since the epoch at which the entitlements were stored
+   */
+  cachedAt?: number;
+}
+
+export type CachedEntitlementsResponseCode = -1 | 0 | 1
+export type CachedEntitlementsResponseMessage =
+"Incompatible with web" |
+"Successfully loaded cached entitlements" |
+"No cached entitlements were found"
+
+export interface EntitlementsChangedEvent {
+  data: Transaction[];
+}
+
+export interface EntitlementsDiffEvent {
+  added: Transaction[];
+  /**
+   * Subscriptions whose expiry date moved forward
+   */
+  renewed: Transaction[];
+  /**
+   * Entitlements whose expiry date passed or which Google Play doesn't list anymore
+   */
+  expired: Transaction[];
+}
+
+export interface EntitlementsPageEvent {
+  /**
+   * Identifies the getCurrentEntitlements call the page belongs to, the same value as the summary's streamId
+   */
+  streamId: string;
+  /**
+   * Position of the page's first entitlement within the stream
+   */
+  cursor: number;
+  /**
+   * Position the next page will start at
+   */
+  nextCursor: number;
+  pageSize: number;
+  data: Transaction[];
+}
+
+export interface EntitlementsStreamSummary {
+  streamId: string;
+  /**
+   * Number of entitlements sent across all pages
+   */
+  total: number;
+  /**
+   * How many of them could not be verified in time
+   */
+  partial: number;
+  pages: number;
+}
+
+export interface HasEntitlementResponse extends TracedResponse {
+  responseCode: HasEntitlementResponseCode | BillingConnectionResponseCode;
+  responseMessage: HasEntitlementResponseMessage | BillingConnectionResponseMessage;
+  data?: {
+    productIdentifier: string;
+    hasEntitlement: boolean;
+  };
+}
+
+export type HasEntitlementResponseCode = -1 | 0
+export type HasEntitlementResponseMessage =
+"Incompatible with web" |
+"User is entitled to the given productIdentifier" |
+"User is not entitled to the given productIdentifier"
+
 // purchaseProduct interface and types
 
-export interface PurchaseProductResponse {
-	responseCode: PurchaseProductIOSResponseCode | PurchaseProductAndroidResponseCode
-	responseMessage: PurchaseProductIOSResponseMessage | PurchaseProductAndroidResponseMessage
+export interface PurchaseProductResponse extends TracedResponse {
+	responseCode: PurchaseProductIOSResponseCode | PurchaseProductAndroidResponseCode | BillingConnectionResponseCode
+	responseMessage: PurchaseProductIOSResponseMessage | PurchaseProductAndroidResponseMessage | BillingConnectionResponseMessage
   data?: Transaction
   receiptString?: string
   currency?: string
@@ -127,15 +369,16 @@ export type PurchaseProductIOSResponseMessage =
 "Product request made but is currently pending - likely due to parental restrictions" |
 "An unknown error occurred whilst in the purchasing process"
 
-export type PurchaseProductAndroidResponseCode = -1 | 0 | 1
+export type PurchaseProductAndroidResponseCode = -1 | 0 | 1 | 2
 export type PurchaseProductAndroidResponseMessage =
 "Incompatible with web" |
 "Successfully opened native popover" |
-"Failed to open native popover"
+"Failed to open native popover" |
+"Could not find an offer matching the given offer selection"
 
-export interface ProductDetailsResponse {
-	responseCode: ProductDetailsResponseCode
-	responseMessage: ProductDetailsResponseMessage
+export interface ProductDetailsResponse extends TracedResponse {
+	responseCode: ProductDetailsResponseCode | BillingConnectionResponseCode
+	responseMessage: ProductDetailsResponseMessage | BillingConnectionResponseMessage
 	data?: Product
 }
 
@@ -145,7 +388,187 @@ export type ProductDetailsResponseMessage =
 "Successfully found the product details for given productIdentifier" |
 "Could not find a product matching the given productIdentifier"
 
+export interface ProductsDetailsResponse extends TracedResponse {
+  responseCode: ProductsDetailsResponseCode;
+  responseMessage: ProductsDetailsResponseMessage;
+  data?: { [productIdentifier: string]: ProductDetailsResponse };
+}
+
+export type ProductsDetailsResponseCode = -1 | 0 | 1 | BillingConnectionResponseCode
+export type ProductsDetailsResponseMessage =
+"Incompatible with web" |
+"Successfully found the product details for given productIdentifiers" |
+"Could not find any product matching the given productIdentifiers" |
+BillingConnectionResponseMessage
+
+export interface PrefetchProductsResponse extends TracedResponse {
+  responseCode: PrefetchProductsResponseCode;
+  responseMessage: PrefetchProductsResponseMessage;
+  data?: string[];
+}
+
+export type PrefetchProductsResponseCode = -1 | 0 | 1 | BillingConnectionResponseCode
+export type PrefetchProductsResponseMessage =
+"Incompatible with web" |
+"Successfully prefetched product details" |
+"Could not find any product matching the given productIdentifiers" |
+BillingConnectionResponseMessage
+
+export interface ExpiryCacheStatsResponse {
+  hits: number;
+  misses: number;
+  size: number;
+}
+
+export interface TracesResponse {
+  traces: Trace[];
+}
+
+export interface Trace {
+  traceId: string;
+  /**
+   * The plugin method, or revalidateEntitlements for background refreshes
+   */
+  name: string;
+  /**
+   * Milliseconds since the epoch
+   */
+  startedAt: number;
+  /**
+   * Milliseconds until the call resolved
+   */
+  duration: number;
+  responseCode: number;
+  spans: TraceSpan[];
+  /**
+   * Spans which didn't fit, a trace keeps at most 64
+   */
+  droppedSpans?: number;
+}
+
+export interface TraceSpan {
+  /**
+   * connection, productQuery, purchasesQuery, verifyAll, verification, verificationHedge, verificationRejected or
+   * launchBillingFlow
+   */
+  name: string;
+  /**
+   * Milliseconds after the start of the trace
+   */
+  start: number;
+  duration: number;
+  /**
+   * The Billing response code, or the HTTP status for verification requests (-1 when there was no answer)
+   */
+  responseCode: number;
+  /**
+   * E.g. the transaction ID of a verification request
+   */
+  detail?: string;
+}
+
+export interface VerificationStatusResponse {
+  /**
+   * While open, no verification requests are sent and uncached entitlements are returned as partial
+   */
+  state: "closed" | "open" | "halfOpen";
+  /**
+   * Percentage of failed or slow requests among the recent ones
+   */
+  failureRate: number;
+  /**
+   * Number of recent requests failureRate is based on
+   */
+  requests: number;
+  /**
+   * Milliseconds until the next request checks whether the endpoint has recovered, only while open
+   */
+  retryIn?: number;
+  /**
+   * Verifications answered without a request because the breaker was open
+   */
+  rejected?: number;
+  hedging?: boolean;
+  hedgesSent?: number;
+  hedgesWon?: number;
+  /**
+   * 95th percentile latency of successful requests in milliseconds, the delay before a hedged request is sent
+   */
+  p95?: number;
+  /**
+   * Whether purchase signatures are checked on the device against the configured playPublicKey
+   */
+  localVerification?: boolean;
+}
+
+/**
+ * Latencies are in milliseconds. Percentiles are accurate to a power of two, max is exact
+ */
+export interface LatencyHistogram {
+  count: number;
+  mean: number;
+  p50: number;
+  p95: number;
+  p99: number;
+  max: number;
+  /**
+   * How often each response code was seen. Google Play response codes for the Play stages, the HTTP status
+   * (or -1 when no response arrived) for verification. Past 16 different codes the rest are counted under "other"
+   */
+  responseCodes: { [responseCode: string]: number };
+}
+
+export interface MetricsResponse {
+  methods: { [methodName: string]: LatencyHistogram };
+  stages: {
+    connect: LatencyHistogram;
+    productQuery: LatencyHistogram;
+    purchasesQuery: LatencyHistogram;
+    verification: LatencyHistogram;
+    acknowledgement: LatencyHistogram;
+  };
+}
+
+/**
+ * Every value except startupMode is in milliseconds since the plugin's load() started. Milestones which
+ * weren't reached yet are left out
+ */
+export interface StartupMetricsResponse {
+  startupMode: 'eager' | 'idle' | 'lazy';
+  /**
+   * How long load() itself took
+   */
+  loadDuration?: number;
+  connectStarted?: number;
+  setupFinished?: number;
+  /**
+   * The first product or purchase query Google Play answered successfully
+   */
+  firstQuery?: number;
+}
+
+// Android only - returned by any method which needs Google Play when the BillingClient could not connect
+// (500) or did not finish connecting within the configured billingQueueTimeout (503)
+export type BillingConnectionResponseCode = 500 | 503
+export type BillingConnectionResponseMessage =
+"Android: BillingClient failed to initialise" |
+"Android: BillingClient is still initialising"
+
 export interface AndroidPurchasedTrigger {
   successful: boolean;
   purchaseToken: string;
+  purchase?: any;
+  errorCode?: number;
+  debugMessage?: string;
+  /**
+   * Every purchase event which arrived within the same short window, the top level fields mirror the first one
+   */
+  purchases?: AndroidPurchaseEvent[];
+}
+
+export interface AndroidPurchaseEvent {
+  successful: boolean;
+  purchase?: any;
+  errorCode?: number;
+  debugMessage?: string;
 }
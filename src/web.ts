@@ -6,7 +6,20 @@ import type {
   CurrentEntitlementsResponse,
   LatestTransactionResponse,
   AndroidPurchasedTrigger,
-  RefundLatestTransactionResponse
+  RefundLatestTransactionResponse,
+  ExpiryCacheStatsResponse,
+  VerificationStatusResponse,
+  TracesResponse,
+  PrefetchProductsResponse,
+  ProductsDetailsResponse,
+  ProductType,
+  HasEntitlementResponse,
+  CachedEntitlementsResponse,
+  EntitlementsChangedEvent,
+  EntitlementsPageEvent,
+  EntitlementsDiffEvent,
+  StartupMetricsResponse,
+  MetricsResponse
 } from './definitions';
 
 export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
@@ -26,7 +39,7 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     return options;
   }
 
-  async getProductDetails(options: { productIdentifier: string }): Promise<ProductDetailsResponse> {
+  async getProductDetails(options: { productIdentifier: string, productType?: ProductType }): Promise<ProductDetailsResponse> {
     console.log('getProductDetails', options);
     return {
       responseCode: -1,
@@ -34,7 +47,23 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     };
   }
 
-  async purchaseProduct(options: { productIdentifier: string, accountId?: string, acknowledgePurchases?: boolean }): Promise< PurchaseProductResponse > {
+  async getProductsDetails(options: { productIdentifiers: string[], productType?: ProductType }): Promise<ProductsDetailsResponse> {
+    console.log('getProductsDetails', options);
+    return {
+      responseCode: -1,
+      responseMessage: 'Incompatible with web',
+    };
+  }
+
+  async prefetchProducts(options: { productIdentifiers: string[], productType?: ProductType }): Promise<PrefetchProductsResponse> {
+    console.log('prefetchProducts', options);
+    return {
+      responseCode: -1,
+      responseMessage: 'Incompatible with web',
+    };
+  }
+
+  async purchaseProduct(options: { productIdentifier: string, accountId?: string, acknowledgePurchases?: boolean, offerId?: string, basePlanId?: string, offerTag?: string }): Promise< PurchaseProductResponse > {
     console.log('purchaseProduct', options);
     return {
       responseCode: -1,
@@ -42,7 +71,7 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     };
   }
 
-  async getCurrentEntitlements(options: { sync: boolean }): Promise< CurrentEntitlementsResponse > {
+  async getCurrentEntitlements(options: { sync?: boolean, stream?: boolean, pageSize?: number }): Promise< CurrentEntitlementsResponse > {
     options;
     console.log('getCurrentEntitlements');
     return {
@@ -52,6 +81,14 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     };
   }
 
+  async getCachedEntitlements(): Promise<CachedEntitlementsResponse> {
+    console.log('getCachedEntitlements');
+    return {
+      responseCode: -1,
+      responseMessage: 'Incompatible with web',
+    };
+  }
+
   async getLatestTransaction(options: { productIdentifier: string }): Promise<LatestTransactionResponse> {
     console.log('getLatestTransaction', options);
     return {
@@ -60,6 +97,14 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     };
   }
 
+  async hasEntitlement(options: { productIdentifier: string }): Promise<HasEntitlementResponse> {
+    console.log('hasEntitlement', options);
+    return {
+      responseCode: -1,
+      responseMessage: 'Incompatible with web',
+    };
+  }
+
   async refundLatestTransaction(options: {productIdentifier: string}): Promise< RefundLatestTransactionResponse > {
     options;
     return {
@@ -68,6 +113,48 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     }
   }
 
+  async getMetrics(): Promise<MetricsResponse> {
+    const empty = () => ({ count: 0, mean: 0, p50: 0, p95: 0, p99: 0, max: 0, responseCodes: {} });
+    return {
+      methods: {},
+      stages: {
+        connect: empty(),
+        productQuery: empty(),
+        purchasesQuery: empty(),
+        verification: empty(),
+        acknowledgement: empty(),
+      },
+    };
+  }
+
+  async getStartupMetrics(): Promise<StartupMetricsResponse> {
+    return {
+      startupMode: 'eager',
+    };
+  }
+
+  async getExpiryCacheStats(): Promise<ExpiryCacheStatsResponse> {
+    return {
+      hits: 0,
+      misses: 0,
+      size: 0,
+    };
+  }
+
+  async getVerificationStatus(): Promise<VerificationStatusResponse> {
+    return {
+      state: 'closed',
+      failureRate: 0,
+      requests: 0,
+    };
+  }
+
+  async getTraces(): Promise<TracesResponse> {
+    return {
+      traces: [],
+    };
+  }
+
   manageSubscriptions(): void {
     console.log('manageSubscriptions');
   }
@@ -76,7 +163,13 @@ export class SubscriptionsWeb extends WebPlugin implements SubscriptionsPlugin {
     console.log('setGoogleVerificationDetails', options);
   }
 
-  addListener(eventName: 'ANDROID-PURCHASE-RESPONSE', listenerFunc: (response: AndroidPurchasedTrigger) => void): Promise<PluginListenerHandle> {
+  addListener(eventName: 'ANDROID-PURCHASE-RESPONSE', listenerFunc: (response: AndroidPurchasedTrigger) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'ENTITLEMENTS-CHANGED', listenerFunc: (response: EntitlementsChangedEvent) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'ENTITLEMENTS-DIFF', listenerFunc: (response: EntitlementsDiffEvent) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'ENTITLEMENTS-PAGE', listenerFunc: (response: EntitlementsPageEvent) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'VERIFICATION-STATUS', listenerFunc: (response: VerificationStatusResponse) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'METRICS', listenerFunc: (response: MetricsResponse) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: string, listenerFunc: (response: any) => void): Promise<PluginListenerHandle> {
     if (!this.listeners[eventName]) {
       this.listeners[eventName] = [];
     }